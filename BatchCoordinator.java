@@ -0,0 +1,426 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Renders a roster like BusinessCardBatch, but on a number of worker processes, each a JVM of its own running
+ * BatchWorker, so a big run isn't held up by the heap and GC of one JVM.
+ *
+ * The roster is read once, here, and cut into chunks of cards.  Each worker is given a shard, a run of chunks next to
+ * each other, which it works through from the front.  A worker that is done with its shard takes chunks from the back
+ * of whichever shard has the most left, so workers that finish early help the slow ones rather than sit idle.  Cards
+ * are numbered as the batch numbers them before they are handed out, and every worker writes to the same directory, so
+ * the output is the one set of cards in roster order however the chunks went.
+ *
+ * Workers are started with the JVM and class path of this one, and any businesscard.* system properties it was given.
+ * Only one process can have the disk tier of the RenderCache, so unless businesscard.cache.dir is given the workers
+ * only cache in memory.  More JVM options for the workers, like -Xmx, can be given in businesscard.worker.options.
+ *
+ * PDF (one file for the whole roster) and printing can't be split up, use the batch for those.
+ *
+ * Usage: BatchCoordinator roster outDir [png|pbm|svg] [workers] [dpi]
+ */
+final class BatchCoordinator {
+
+    static final String WORKER_OPTIONS = "businesscard.worker.options";
+    private static final String CACHE_DIR = "businesscard.cache.dir";
+
+    private static final int CHUNKS_PER_WORKER = 16; // enough for the workers to even out when they finish
+    private static final int MIN_CHUNK = 32; // cards, so the talk between processes stays small next to rendering
+    private static final int MAX_CHUNK = 1024;
+
+    private final List<CardRecord> mRecords;
+    private final File mOutDir;
+    private final String mFormat;
+    private final int mDpi;
+    private final CardFitting mFitting;
+
+    private final List<Deque<Chunk>> mShards = new ArrayList<>();
+    private final List<Worker> mWorkers = new ArrayList<>();
+    private String mFailure; // guarded by this
+
+    /**
+     * Cards from first to first + count - 1.
+     */
+    private static final class Chunk {
+
+        final int first; // index in the records, the card number is one more
+        final int count;
+
+        Chunk(int first, int count) {
+
+            this.first = first;
+            this.count = count;
+
+        }
+
+    }
+
+    /**
+     * One worker process and what it did.
+     */
+    private final class Worker implements Runnable {
+
+        final int index;
+        final Process process;
+        final Writer in;
+        final BufferedReader out;
+
+        long cards;
+        int chunks;
+        int stolen;
+        long busyNanos; // as the worker measured it, so without the talk
+
+        Worker(int index, Process process) {
+
+            this.index = index;
+            this.process = process;
+            in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                Chunk chunk;
+
+                while ((chunk = next(this)) != null) {
+
+                    in.write("chunk " + (chunk.first + 1) + " " + chunk.count + "\n");
+
+                    for (CardRecord record : mRecords.subList(chunk.first, chunk.first + chunk.count)) {
+                        in.write(record.title + "\t" + record.bottom + "\n");
+                    }
+
+                    in.flush();
+                    String reply = out.readLine();
+
+                    if (reply == null || !reply.startsWith("done ")) {
+                        fail("worker " + index + " " + (reply == null ? "exited with " + process.waitFor() : reply));
+                        return;
+                    }
+
+                    busyNanos += Long.parseLong(reply.substring("done ".length()));
+                    cards += chunk.count;
+                    chunks++;
+
+                }
+
+                in.close();
+
+            } catch (IOException e) {
+
+                fail("worker " + index + " " + e);
+
+            } catch (InterruptedException ie) {
+
+                Thread.currentThread().interrupt();
+                fail("worker " + index + " interrupted");
+
+            }
+
+        }
+
+    }
+
+    BatchCoordinator(List<CardRecord> records, File outDir, String format, int dpi, CardFitting fitting) {
+
+        mRecords = records;
+        mOutDir = outDir;
+        mFormat = format;
+        mDpi = dpi;
+        mFitting = fitting;
+
+    }
+
+    public static void main( String args[] ) {
+
+        String usage = "Usage: BatchCoordinator roster outDir [png|pbm|svg] [workers] [dpi]";
+
+        if (args.length < 2) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        String format = args.length > 2 ? args[2] : "png";
+        int workers = BusinessCardBatch.intArg(args, 3, "workers", Runtime.getRuntime().availableProcessors(), 1,
+                BusinessCardBatch.MAX_THREADS, usage);
+        int dpi = BusinessCardBatch.intArg(args, 4, "dpi", Supersampler.SCREEN_DPI, Supersampler.SCREEN_DPI,
+                Supersampler.MAX_DPI, usage);
+
+        if (!format.matches("png|pbm|svg")) {
+            System.err.println("Unknown format " + format + ", must be png, pbm or svg.");
+            System.exit(1);
+        }
+
+        try {
+
+            File outDir = new File(args[1]);
+
+            if (!outDir.isDirectory() && !outDir.mkdirs()) {
+                throw new IOException("Could not create output directory " + outDir);
+            }
+
+            long start = System.nanoTime();
+            RosterReader roster = new RosterReader(args[0], new File(outDir, BusinessCardBatch.REJECTED_FILE));
+            List<CardRecord> records = roster.readAll();
+
+            BatchCoordinator coordinator = new BatchCoordinator(records, outDir, format, dpi,
+                    CardFitting.forCards(records));
+            coordinator.run(workers);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("Rendered %d cards in %.3f s on %d workers: %.1f cards/s%n",
+                    records.size(), seconds, workers, records.size() / seconds);
+
+            if (roster.getRejected() > 0) {
+                System.out.println("Rejected " + roster.getRejected() + " records, see "
+                        + new File(outDir, BusinessCardBatch.REJECTED_FILE));
+            }
+
+            System.out.print(coordinator.report());
+
+        } catch (IOException | IllegalArgumentException e) {
+
+            e.printStackTrace();
+            System.exit(2);
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+            System.exit(2);
+
+        }
+
+    }
+
+    /**
+     * Starts the workers, hands out all of the cards and waits for them to be written.  If a worker fails the rest are
+     * stopped.
+     * @param workers how many processes to render on, at least 1
+     * @throws IOException if a worker could not be started, or failed
+     */
+    void run(int workers) throws IOException, InterruptedException {
+
+        if (workers < 1) {
+            throw new IllegalArgumentException("There has to be at least one worker, not " + workers + ".");
+        }
+
+        shard(workers);
+        List<Thread> threads = new ArrayList<>();
+
+        try {
+
+            for (int i = 0; i < workers; i++) {
+                mWorkers.add(new Worker(i + 1, startWorker()));
+            }
+
+            for (Worker worker : mWorkers) {
+
+                Thread thread = new Thread(worker, "worker-" + worker.index);
+                thread.start();
+                threads.add(thread);
+
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            synchronized (this) {
+
+                if (mFailure != null) {
+                    throw new IOException("Batch failed, " + mFailure);
+                }
+
+            }
+
+            for (Worker worker : mWorkers) {
+
+                int exit = worker.process.waitFor();
+
+                if (exit != 0) {
+                    throw new IOException("Batch failed, worker " + worker.index + " exited with " + exit);
+                }
+
+            }
+
+        } finally {
+
+            for (Worker worker : mWorkers) {
+                worker.process.destroy();
+            }
+
+        }
+
+    }
+
+    /**
+     * @return cards, chunks and throughput of each worker, a line each
+     */
+    String report() {
+
+        StringBuilder report = new StringBuilder();
+
+        for (Worker worker : mWorkers) {
+
+            double seconds = worker.busyNanos / 1e9;
+
+            report.append(String.format("worker %d: %d cards in %d chunks (%d stolen), %.3f s busy: %.1f cards/s%n",
+                    worker.index, worker.cards, worker.chunks, worker.stolen, seconds,
+                    seconds > 0 ? worker.cards / seconds : 0.0));
+
+        }
+
+        return report.toString();
+
+    }
+
+    /**
+     * Cuts the records into chunks and deals them out as shards, a run of chunks per worker.
+     */
+    private void shard(int workers) {
+
+        int size = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, mRecords.size() / (workers * CHUNKS_PER_WORKER)));
+        List<Chunk> chunks = new ArrayList<>();
+
+        for (int first = 0; first < mRecords.size(); first += size) {
+            chunks.add(new Chunk(first, Math.min(size, mRecords.size() - first)));
+        }
+
+        for (int i = 0; i < workers; i++) {
+            mShards.add(new ArrayDeque<>(chunks.subList(chunks.size() * i / workers, chunks.size() * (i + 1) / workers)));
+        }
+
+    }
+
+    /**
+     * @return the next chunk from the front of the worker's own shard, or stolen from the back of the biggest other
+     * one, null when there are none left or the batch failed
+     */
+    private synchronized Chunk next(Worker worker) {
+
+        if (mFailure != null) {
+            return null;
+        }
+
+        Chunk chunk = mShards.get(worker.index - 1).pollFirst();
+
+        if (chunk != null) {
+            return chunk;
+        }
+
+        Deque<Chunk> biggest = null;
+
+        for (Deque<Chunk> shard : mShards) {
+
+            if (biggest == null || shard.size() > biggest.size()) {
+                biggest = shard;
+            }
+
+        }
+
+        chunk = biggest.pollLast();
+
+        if (chunk != null) {
+            worker.stolen++;
+        }
+
+        return chunk;
+
+    }
+
+    private void fail(String why) {
+
+        synchronized (this) {
+
+            if (mFailure == null) {
+                mFailure = why;
+            }
+
+        }
+
+        // a worker waiting for its next chunk would never get one
+        for (Worker worker : mWorkers) {
+            worker.process.destroy();
+        }
+
+    }
+
+    private Process startWorker() throws IOException {
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-Djava.awt.headless=true");
+
+        String options = System.getProperty(WORKER_OPTIONS, "").trim();
+
+        if (!options.isEmpty()) {
+
+            for (String option : options.split("\\s+")) {
+                command.add(option);
+            }
+
+        }
+
+        if (System.getProperty(CACHE_DIR) == null) {
+            command.add("-D" + CACHE_DIR + "=");
+        }
+
+        for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+
+            String name = property.getKey().toString();
+
+            if (name.startsWith("businesscard.") && !name.equals(WORKER_OPTIONS) && !name.equals(CardFitting.PROPERTY)) {
+                command.add("-D" + name + "=" + property.getValue());
+            }
+
+        }
+
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BatchWorker.class.getName());
+        command.add(mOutDir.getPath());
+        command.add(mFormat);
+        command.add(Integer.toString(mDpi));
+        command.add(mFitting.argument());
+
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+    }
+
+}
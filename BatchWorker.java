@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * One worker process of a BatchCoordinator.  It renders the chunks of cards the coordinator sends it, one at a time, to
+ * the output directory, through the same BusinessCardBatch.writeCard as a batch, and says when each is done.
+ *
+ * The coordinator talks to it over stdin and stdout, a line at a time.  A chunk is a "chunk" line with the number of
+ * its first card and how many cards there are, followed by a line per card with its title and bottom line separated by
+ * a tab (cards can't have control chars, see CardRecord.problem).  The worker answers "done", with how long the chunk
+ * took in nanoseconds, or "failed" and why, and then stops.  At the end of stdin it exits.  Anything else it has to say
+ * goes to stderr.
+ *
+ * Usage: BatchWorker outDir png|pbm|svg dpi fitting
+ */
+final class BatchWorker {
+
+    private BatchWorker() {
+    }
+
+    public static void main( String args[] ) {
+
+        // must be set before any AWT class gets loaded
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 4) {
+            System.err.println("Usage: BatchWorker outDir png|pbm|svg dpi fitting");
+            System.exit(1);
+        }
+
+        BusinessCardBatch batch = new BusinessCardBatch(new File(args[0]), args[1], Integer.parseInt(args[2]),
+                CardFitting.parse(args[3]));
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+
+            String line;
+
+            while ((line = in.readLine()) != null) {
+
+                String[] chunk = line.split(" ");
+                long first = Long.parseLong(chunk[1]);
+                int count = Integer.parseInt(chunk[2]);
+
+                long start = System.nanoTime();
+                String failure = null;
+
+                for (int i = 0; i < count; i++) {
+
+                    String card = in.readLine();
+                    int tab = card.indexOf('\t');
+                    CardRecord record = new CardRecord(card.substring(0, tab), card.substring(tab + 1));
+
+                    if (failure == null) {
+
+                        try {
+                            batch.writeCard(batch.cardFile(first + i), record, batch.cardKey(record));
+                        } catch (UncheckedIOException | IllegalArgumentException e) {
+                            failure = e.toString().replace('\n', ' ');
+                        }
+
+                    }
+
+                }
+
+                if (failure != null) {
+                    out.write("failed " + failure + "\n");
+                    out.flush();
+                    System.exit(2);
+                }
+
+                out.write("done " + (System.nanoTime() - start) + "\n");
+                out.flush();
+
+            }
+
+        } catch (IOException e) {
+
+            e.printStackTrace();
+            System.exit(2);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Renders business cards to 1 bit per pixel images (TYPE_BYTE_BINARY), which is all a printed card needs.
+ *
+ * The corner cut, corner markers and punches are all straight lines and rectangles, so they are written straight into
+ * the packed bits of the image's DataBuffer.  Java 2D is only used for the glyphs.  Besides being 8 times smaller than a
+ * gray image, this skips the Graphics2D pipeline for everything but the text.
+ *
+ * In the default TYPE_BYTE_BINARY palette a 0 bit is black and a 1 bit is white, most significant bit leftmost.
+ */
+final class BinaryCardRaster {
+
+    private BinaryCardRaster() {
+    }
+
+    /**
+     * @return a new all white 1 bit image of the given size
+     */
+    static BufferedImage newImage(int width, int height) {
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        Arrays.fill(data(image), (byte)0xff);
+        return image;
+
+    }
+
+    /**
+     * Renders a card for the text into a new 1 bit image.
+     * @param bcDim how big the business card is in pixels
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     * @return the card image
+     */
+    static BufferedImage render(Dimension bcDim, String titleText, String bottomText) {
+
+        BufferedImage image = newImage(bcDim.width, bcDim.height);
+        render(image, titleText, bottomText);
+        return image;
+
+    }
+
+    /**
+     * Renders a card for the text into a 1 bit image, the card is the size of the image.
+     * @param image a TYPE_BYTE_BINARY image, anything already in it is wiped out
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     */
+    static void render(BufferedImage image, String titleText, String bottomText) {
+
+        Graphics2D g = image.createGraphics();
+        RenderProfile.BATCH.applyTo(g);
+
+        try {
+
+            Dimension bcDim = new Dimension(image.getWidth(), image.getHeight());
+            CardLayout layout = CardLayout.get(titleText.length(), bottomText.length(), bcDim, g.getFontRenderContext());
+            render(image, g, layout, titleText, bottomText);
+
+        } finally {
+
+            g.dispose();
+
+        }
+
+    }
+
+    /**
+     * Replays the layout into the image.
+     * @param image a TYPE_BYTE_BINARY image the size of the layout
+     * @param g graphics of the image, only used for the glyphs
+     * @param layout where everything goes
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     */
+    static void render(BufferedImage image, Graphics2D g, CardLayout layout, String titleText, String bottomText) {
+
+        byte[] bits = data(image);
+        int stride = stride(image);
+        int w = image.getWidth();
+        int h = image.getHeight();
+
+        Arrays.fill(bits, (byte)0xff);
+
+        // upper left corner cut line and corner markers
+        int[] lines = layout.lines;
+
+        for (int i = 0; i < lines.length; i += 4) {
+            drawLine(bits, stride, w, h, lines[i], lines[i+1], lines[i+2], lines[i+3]);
+        }
+
+        // the punches
+        for (int col = 0; col < layout.titleLen; col++) {
+
+            char c = titleText.charAt(col);
+
+            for (int bit = 0; bit < CardLayout.PUNCH_ROWS; bit++) {
+
+                if ((c & (1 << bit)) != 0) {
+                    fillRect(bits, stride, w, h, layout.punchX[col], layout.punchY[bit], layout.punchWidth, layout.punchHeight);
+                }
+
+            }
+
+        }
+
+        // and the text
+        g.setColor(Color.BLACK);
+        g.setFont(layout.font());
+
+        for (int col = 0; col < layout.titleLen; col++) {
+            g.drawString(BusinessCardCanvas.charString(titleText.charAt(col)), layout.columnX[col], layout.titleBaseline);
+        }
+
+        g.drawString(bottomText, layout.bottomX, layout.bottomBaseline);
+
+    }
+
+    /**
+     * Clears (blackens) the bits of a rectangle, clipped to the image.
+     */
+    static void fillRect(byte[] bits, int stride, int w, int h, int x, int y, int rw, int rh) {
+
+        int x0 = Math.max(0, x);
+        int x1 = Math.min(w, x + rw); // exclusive
+        int y0 = Math.max(0, y);
+        int y1 = Math.min(h, y + rh);
+
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+
+        int firstByte = x0 >> 3;
+        int lastByte = (x1 - 1) >> 3;
+        int firstMask = 0xff >>> (x0 & 7); // bits from x0 to the end of its byte
+        int lastMask = 0xff << (7 - ((x1 - 1) & 7)); // bits from the start of its byte to x1 - 1
+
+        for (int row = y0; row < y1; row++) {
+
+            int base = row * stride;
+
+            if (firstByte == lastByte) {
+
+                bits[base + firstByte] &= ~(firstMask & lastMask);
+
+            } else {
+
+                bits[base + firstByte] &= ~firstMask;
+                Arrays.fill(bits, base + firstByte + 1, base + lastByte, (byte)0);
+                bits[base + lastByte] &= ~lastMask;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Bresenham line, clipped to the image a pixel at a time.  Horizontal, vertical and 45 degree lines, which is all a
+     * card has, come out the same as Graphics.drawLine.
+     */
+    static void drawLine(byte[] bits, int stride, int w, int h, int x1, int y1, int x2, int y2) {
+
+        int dx = Math.abs(x2 - x1);
+        int dy = -Math.abs(y2 - y1);
+        int sx = x1 < x2 ? 1 : -1;
+        int sy = y1 < y2 ? 1 : -1;
+        int err = dx + dy;
+
+        while (true) {
+
+            if (x1 >= 0 && x1 < w && y1 >= 0 && y1 < h) {
+                bits[y1 * stride + (x1 >> 3)] &= ~(0x80 >>> (x1 & 7));
+            }
+
+            if (x1 == x2 && y1 == y2) {
+                break;
+            }
+
+            int e2 = 2 * err;
+
+            if (e2 >= dy) {
+                err += dy;
+                x1 += sx;
+            }
+
+            if (e2 <= dx) {
+                err += dx;
+                y1 += sy;
+            }
+
+        }
+
+    }
+
+    /**
+     * @return true if the image is 1 bit with the default palette, black as 0 and white as 1
+     */
+    static boolean isBinary(BufferedImage image) {
+
+        if (image.getType() != BufferedImage.TYPE_BYTE_BINARY || !(image.getColorModel() instanceof IndexColorModel)) {
+            return false;
+        }
+
+        IndexColorModel cm = (IndexColorModel)image.getColorModel();
+        return cm.getMapSize() == 2 && (cm.getRGB(0) & 0xffffff) == 0 && (cm.getRGB(1) & 0xffffff) == 0xffffff;
+
+    }
+
+    /**
+     * @return the packed bits backing the image
+     */
+    static byte[] data(BufferedImage image) {
+
+        return ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+
+    }
+
+    /**
+     * @return bytes per row of the image
+     */
+    static int stride(BufferedImage image) {
+
+        return ((MultiPixelPackedSampleModel)image.getSampleModel()).getScanlineStride();
+
+    }
+
+}
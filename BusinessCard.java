@@ -60,7 +60,7 @@ public class BusinessCard extends JApplet {
         applet.init();
 
         // the total size of the java app including all UI
-        int WIDTH = 600;
+        int WIDTH = 720;
         int HEIGHT = 400;
 
         frame.setContentPane(applet.getContentPane());
@@ -103,6 +103,8 @@ public class BusinessCard extends JApplet {
 
         contentPane.add( ui.getBottomTextInputPanel(), BorderLayout.SOUTH ); // text field for optional bottom line
 
+        contentPane.add( ui.getPrintQueuePanel(), BorderLayout.EAST ); // jobs printing or waiting to print
+
     }
 
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Headless batch mode for rendering a whole roster of business cards at once, no JFrame or JApplet involved.
+ *
+ * The roster is a CSV or JSONL export, or a text file (or stdin if the file name is "-") with one card per line, the
+ * title text and the optional bottom text separated by a tab.  It is streamed through a RosterReader, so rosters of any
+ * size render in the same memory.  Records the editor wouldn't accept go to rejected.txt in the output directory
+ * instead of failing the run.  Each card is rendered on a fork-join pool to its own PNG or PBM file in the output
+ * directory, named by its number among the accepted records.  PNG cards are drawn in gray with the title columns copied from
+ * a PunchAtlas, since cards of the same shape come up again and again in a roster.  PBM cards are rendered straight to
+ * 1 bit by BinaryCardRaster.  SVG cards are written as vectors, one file per card, and PDF puts every card on its own
+ * page of a single cards.pdf, streamed out in roster order.  The print format sends the whole roster to the default
+ * printer instead, imposed as many cards to a page as fit (the output directory is not used).  When done, the number
+ * of cards per second is reported, followed by the RenderMetrics timings of each stage.  For more detail run it with
+ * -XX:StartFlightRecording, see CardEvents.
+ *
+ * Each shape of card is fitted once for the whole run, and with -Dbusinesscard.fit=shared every card gets the size the
+ * longest card of the roster fits at, so the cards of a run match, see CardFitting.
+ *
+ * Images are 72 DPI unless another resolution is given, in which case they are supersampled (see Supersampler).  Each
+ * card file is looked up in the RenderCache first, so cards that come up again, in this roster or in an earlier run, are
+ * only copied out.
+ *
+ * Each worker draws every card into the same image and encodes it into the same buffer, see RenderTarget, so what a
+ * card allocates is mostly its encoded bytes.  The bytes allocated per card are reported as alloc.card, and per card
+ * actually rendered (missing the cache) as alloc.render.
+ *
+ * Usage: BusinessCardBatch roster outDir [png|pbm|svg|pdf|print] [threads] [dpi]
+ */
+class BusinessCardBatch {
+
+    static final String REJECTED_FILE = "rejected.txt";
+    static final int MAX_THREADS = 1024;
+
+    private static final String USAGE =
+            "Usage: BusinessCardBatch roster outDir [png|pbm|svg|pdf|print] [threads] [dpi]";
+
+    private final File mOutDir;
+    private final String mFormat;
+    private final int mDpi;
+    private final CardFitting mFitting;
+    private final RenderCache mCache = RenderCache.shared();
+    private final ThreadLocal<ByteArrayOutputStream> mBytes = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(16 * 1024));
+    private final RenderMetrics.Histogram mCardAlloc = RenderMetrics.bytes("alloc.card");
+    private final RenderMetrics.Histogram mRenderAlloc = RenderMetrics.bytes("alloc.render");
+
+    BusinessCardBatch(File outDir, String format, int dpi) {
+
+        this(outDir, format, dpi, CardFitting.eachShape());
+
+    }
+
+    BusinessCardBatch(File outDir, String format, int dpi, CardFitting fitting) {
+
+        mOutDir = outDir;
+        mFormat = format;
+        mDpi = dpi;
+        mFitting = fitting;
+
+    }
+
+    public static void main( String args[] ) {
+
+        // must be set before any AWT class gets loaded
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        String format = args.length > 2 ? args[2] : "png";
+        int threads = intArg(args, 3, "threads", Runtime.getRuntime().availableProcessors(), 1, MAX_THREADS, USAGE);
+        int dpi = intArg(args, 4, "dpi", Supersampler.SCREEN_DPI, Supersampler.SCREEN_DPI, Supersampler.MAX_DPI, USAGE);
+
+        if (!format.matches("png|pbm|svg|pdf|print")) {
+            System.err.println("Unknown format " + format + ", must be png, pbm, svg, pdf or print.");
+            System.exit(1);
+        }
+
+        try {
+
+            File outDir = new File(args[1]);
+
+            if (!outDir.isDirectory() && !outDir.mkdirs()) {
+                throw new IOException("Could not create output directory " + outDir);
+            }
+
+            BusinessCardBatch batch = new BusinessCardBatch(outDir, format, dpi, CardFitting.forRoster(args[0]));
+            RosterReader roster = new RosterReader(args[0], new File(outDir, REJECTED_FILE));
+
+            long start = System.nanoTime();
+            long cards = batch.run(roster, threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("Rendered %d cards in %.3f s on %d threads: %.1f cards/s%n",
+                    cards, seconds, threads, cards / seconds);
+
+            if (roster.getRejected() > 0) {
+                System.out.println("Rejected " + roster.getRejected() + " records, see " + new File(outDir, REJECTED_FILE));
+            }
+
+            System.out.print(RenderMetrics.report());
+
+        } catch (IOException | UncheckedIOException | IllegalArgumentException | ExecutionException | PrinterException e) {
+
+            e.printStackTrace();
+            System.exit(2);
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+            System.exit(2);
+
+        }
+
+    }
+
+    /**
+     * Parses a number given to a main, and if it isn't a number in range says so and how to run it, and exits with 1.
+     * @param args what main was given
+     * @param index which of them, defaultValue is used if there aren't that many
+     * @param name what the number is called in the message
+     * @param usage the usage line of the main
+     * @return the number, from min to max
+     */
+    static int intArg(String[] args, int index, String name, int defaultValue, int min, int max, String usage) {
+
+        if (args.length <= index) {
+            return defaultValue;
+        }
+
+        try {
+
+            int value = Integer.parseInt(args[index]);
+
+            if (value >= min && value <= max) {
+                return value;
+            }
+
+        } catch (NumberFormatException nfe) {
+            // said below
+        }
+
+        System.err.println(name + " must be a number from " + min + " to " + max + ", not " + args[index] + ".");
+        System.err.println(usage);
+        System.exit(1);
+        return defaultValue;
+
+    }
+
+    /**
+     * Reads the whole roster, rejected records are left out.  Only the short strings of each record are held.
+     * @param name roster file name or "-" for stdin
+     * @return the accepted records in roster order
+     * @throws IOException if the roster can not be read
+     */
+    static List<CardRecord> readRoster(String name) throws IOException {
+
+        return new RosterReader(name, null).readAll();
+
+    }
+
+    /**
+     * Renders every record of the roster on a fork-join pool of the given size as it is read, and waits for all of them
+     * to finish.  A PDF is one stream, so it is done on the calling thread, and a print job needs all of the records to
+     * impose them on pages.
+     * @param roster where the records come from
+     * @param threads parallelism of the pool
+     * @return how many cards were rendered
+     */
+    long run(RosterReader roster, int threads) throws InterruptedException, ExecutionException, IOException, PrinterException {
+
+        if (mFormat.equals("pdf")) {
+            return writePdf(roster);
+        }
+
+        if (mFormat.equals("print")) {
+            List<CardRecord> records = roster.readAll();
+            PrinterJob job = PrinterJob.getPrinterJob();
+            job.setPrintable(new BusinessCardPrint(records, mFitting));
+            job.print();
+            return records.size();
+        }
+
+        return roster.forEach(threads, this::renderCard);
+
+    }
+
+    /**
+     * Writes a single card to its output file, from the render cache if it has been rendered before.
+     * @param entry the record and its number in the roster
+     */
+    private void renderCard(RosterReader.Entry entry) {
+
+        writeCard(cardFile(entry.number), entry.record, cardKey(entry.record));
+
+    }
+
+    /**
+     * @param number of the card among the accepted records, from 1
+     * @return where the card goes
+     */
+    File cardFile(long number) {
+
+        return new File(mOutDir, String.format("card-%06d.%s", number, mFormat));
+
+    }
+
+    /**
+     * @return the render cache key of the card in the output format and resolution
+     */
+    RenderCache.Key cardKey(CardRecord record) {
+
+        return RenderCache.key(mFormat, record.title, record.bottom, BusinessCardCanvas.BC_WIDTH,
+                BusinessCardCanvas.BC_HEIGHT, mDpi, mFitting);
+
+    }
+
+    /**
+     * Writes a card to the file, from the render cache if it has been rendered before.
+     * @param file where it goes
+     * @param record the card
+     * @param key its cardKey
+     */
+    void writeCard(File file, CardRecord record, RenderCache.Key key) {
+
+        long allocated = RenderMetrics.allocatedBytes();
+
+        try {
+
+            Files.write(file.toPath(), mCache.get(key, () -> {
+
+                long before = RenderMetrics.allocatedBytes();
+                byte[] data = encodeCard(record);
+
+                if (before >= 0) {
+                    mRenderAlloc.record(RenderMetrics.allocatedBytes() - before);
+                }
+
+                return data;
+
+            }));
+
+        } catch (IOException ioe) {
+
+            throw new UncheckedIOException("Could not write " + file, ioe);
+
+        }
+
+        if (allocated >= 0) {
+            mCardAlloc.record(RenderMetrics.allocatedBytes() - allocated);
+        }
+
+    }
+
+    /**
+     * Renders a single card in the output format, into the buffer of the calling thread.
+     * @param record the card to render
+     * @return the encoded card
+     */
+    private byte[] encodeCard(CardRecord record) throws IOException {
+
+        ByteArrayOutputStream bytes = mBytes.get();
+        bytes.reset();
+        encode(record, mFormat, mDpi, mFitting, true, bytes);
+        return bytes.toByteArray();
+
+    }
+
+    /**
+     * Renders a single card to the stream, images into the RenderTarget of the calling thread.
+     * @param record the card to render
+     * @param format png, pbm, svg or pdf (a one page PDF)
+     * @param dpi resolution of png and pbm images
+     * @param fitting where the layout of the card comes from
+     * @param useAtlas copy the title columns of 72 DPI png cards from a PunchAtlas, which only pays for itself over many
+     * cards
+     * @param out where the card goes, not closed
+     * @throws IOException if the stream fails
+     */
+    static void encode(CardRecord record, String format, int dpi, CardFitting fitting, boolean useAtlas, OutputStream out)
+            throws IOException {
+
+        Dimension bcDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+        int titleLen = record.title.length();
+        int bottomLen = record.bottom.length();
+
+        if (format.equals("svg")) {
+
+            CardLayout layout = fitting.layout(titleLen, bottomLen, bcDim, CardLayout.DEFAULT_FRC);
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            SvgCardWriter.write(layout, record.title, record.bottom, writer);
+            writer.flush();
+
+        } else if (format.equals("pdf")) {
+
+            CardLayout layout = fitting.layout(titleLen, bottomLen, bcDim, CardLayout.DEFAULT_FRC);
+            PdfCardWriter pdf = new PdfCardWriter(out);
+            pdf.addCard(layout, record.title, record.bottom);
+            pdf.finish();
+
+        } else if (dpi != Supersampler.SCREEN_DPI) {
+
+            BufferedImage image = Supersampler.render(fitting, record.title, record.bottom, dpi);
+
+            if (format.equals("pbm")) {
+                CardImageIO.writePbm(image, out);
+            } else {
+                CardImageIO.writePng(image, out);
+            }
+
+        } else if (format.equals("pbm")) {
+
+            // PBM is black and white anyway, so go straight to bits
+            RenderTarget target = RenderTarget.forThread(RenderTarget.CARD, bcDim.width, bcDim.height,
+                    BufferedImage.TYPE_BYTE_BINARY);
+            CardLayout layout = fitting.layout(titleLen, bottomLen, bcDim, target.graphics.getFontRenderContext());
+            BinaryCardRaster.render(target.image, target.graphics, layout, record.title, record.bottom);
+
+            CardImageIO.writePbm(target.image, out);
+
+        } else {
+
+            RenderTarget target = RenderTarget.forThread(RenderTarget.CARD, bcDim.width, bcDim.height,
+                    BufferedImage.TYPE_BYTE_GRAY);
+            CardLayout layout = fitting.layout(titleLen, bottomLen, bcDim, target.graphics.getFontRenderContext());
+            BusinessCardCanvas.paintBusinessCard(target.graphics, layout, record.title, record.bottom, useAtlas);
+
+            CardImageIO.writePng(target.image, out);
+
+        }
+
+    }
+
+    /**
+     * Writes every record as a page of one PDF, straight to the file channel, as the records are read.
+     * @return how many pages were written
+     */
+    private long writePdf(RosterReader roster) throws IOException {
+
+        Dimension bcDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+        FileChannel channel = FileChannel.open(new File(mOutDir, "cards.pdf").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        try (PdfCardWriter pdf = new PdfCardWriter(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+
+            return roster.forEachInOrder(entry -> {
+
+                CardRecord record = entry.record;
+                CardLayout layout = mFitting.layout(record.title.length(), record.bottom.length(), bcDim, CardLayout.DEFAULT_FRC);
+
+                try {
+                    pdf.addCard(layout, record.title, record.bottom);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+
+            });
+
+        }
+
+    }
+
+}
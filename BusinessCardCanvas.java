@@ -18,9 +18,9 @@ package org.mirly.businesscard;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.font.FontRenderContext;
-import java.awt.font.LineMetrics;
-import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.VolatileImage;
 
 /**
  * @author David Mirly
@@ -37,12 +37,42 @@ class BusinessCardCanvas extends JPanel {
     static final int BC_HEIGHT = 144; // pixels for 2" @ 72 DPI
 
     // for drawing the business card image
-    private static final double CHAR_SPACING = 1.5; // columns per title character. value greater than one puts extra horizontal spacing between each top char and its punches
-    private static final double CORNER_PERCENTAGE = 0.10; // percentage of the card width taken by the upper left corner cut
+    static final double CHAR_SPACING = 1.5; // columns per title character. value greater than one puts extra horizontal spacing between each top char and its punches
+    static final double CORNER_PERCENTAGE = 0.10; // percentage of the card width taken by the upper left corner cut
+
+    // one char strings for drawing title chars without making a new string each time
+    private static final String[] ASCII = new String[128];
+
+    static {
+
+        for (char c = 0; c < ASCII.length; c++) {
+            ASCII[c] = String.valueOf(c);
+        }
+
+    }
+
+    private static final int FRAME_MS = 16; // text changes are drawn at most once per frame, ~60 frames a second
 
     private String mTitleText = "";
     private String mBottomText = "";
 
+    // The card is drawn into a back buffer which is copied to the screen.  These are what the back buffer has in it, a
+    // null layout means the back buffer has to be drawn from scratch.
+    private VolatileImage mBackBuffer;
+    private BufferedImage mCardImage; // whole cards from the render cache go through here on their way to the back buffer
+    private CardLayout mDrawnLayout;
+    private String mDrawnTitle = "";
+    private String mDrawnBottom = "";
+
+    private final Timer mFrameTimer = new Timer(FRAME_MS, e -> drawFrame());
+    private long mLastFrame; // System.nanoTime() of the last frame drawn
+
+    BusinessCardCanvas() {
+
+        mFrameTimer.setRepeats(false);
+
+    }
+
     public Dimension getPreferredSize() {
 
         return new Dimension(BC_WIDTH, BC_HEIGHT);
@@ -50,7 +80,8 @@ class BusinessCardCanvas extends JPanel {
     }
 
     /**
-     * This essentially just calls paintBusinessCard so entities other the AWT can get a bc image.
+     * Copies the card from the back buffer, drawing the back buffer first if its contents are gone.  Without a back
+     * buffer this essentially just calls paintBusinessCard so entities other the AWT can get a bc image.
      * @see BusinessCardUI
      * @param g context to draw to
      */
@@ -58,7 +89,25 @@ class BusinessCardCanvas extends JPanel {
 
         super.paintComponent(g);
 
-        paintBusinessCard(g, getSize());
+        if (backBuffer() == null) {
+            RenderProfile.BATCH.applyTo((Graphics2D)g);
+            paintBusinessCard(g, getSize());
+            return;
+        }
+
+        do {
+
+            if (mBackBuffer.validate(getGraphicsConfiguration()) != VolatileImage.IMAGE_OK) {
+                mDrawnLayout = null;
+            }
+
+            if (mDrawnLayout == null || !mDrawnTitle.equals(mTitleText) || !mDrawnBottom.equals(mBottomText)) {
+                drawBackBuffer();
+            }
+
+            g.drawImage(mBackBuffer, 0, 0, null);
+
+        } while (mBackBuffer.contentsLost());
 
     }
 
@@ -69,165 +118,185 @@ class BusinessCardCanvas extends JPanel {
      */
     public void paintBusinessCard(Graphics g, Dimension bcDim) {
 
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, (int)bcDim.getWidth(), (int)bcDim.getHeight());
+        paintBusinessCard(g, bcDim, mTitleText, mBottomText);
 
-        g.setColor(Color.BLACK);
+    }
 
-        // upper left corner cut line
-        int cornerXY = (int)(CORNER_PERCENTAGE * bcDim.getWidth());
-        g.drawLine(0, cornerXY, cornerXY, 0);
+    /**
+     * @return the card as currently typed in
+     */
+    CardRecord getCard() {
 
+        return new CardRecord(mTitleText, mBottomText);
 
-        // corner markers
-        g.drawLine(0, 0, 0, 10);
-        g.drawLine(0, 0, 10, 0);
+    }
 
-        int w = (int)bcDim.getWidth();
-        int h = (int)bcDim.getHeight();
+    /**
+     * Draws a business card for the given text without needing a canvas (or any other AWT component) to exist.  This is
+     * what the headless batch renderer uses.
+     * @param g graphics context to render to
+     * @param bcDim how big the business card is in pixels
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     * @see BusinessCardBatch
+     */
+    static void paintBusinessCard(Graphics g, Dimension bcDim, String titleText, String bottomText) {
 
-        g.drawLine(0, h, 0, h-10);
-        g.drawLine(0, h-1, 10, h-1);
+        paintBusinessCard(g, bcDim, titleText, bottomText, false);
 
-        g.drawLine(w, 0, w-10, 0);
-        g.drawLine(w-1, 0, w-1, 10);
+    }
 
-        g.drawLine(w, h-1, w-10, h-1);
-        g.drawLine(w-1, h, w-1, h-10);
-        // end corner markers
+    /**
+     * Same as above, but optionally copies the title columns out of a PunchAtlas instead of drawing them one by one.
+     * Only worth it when many cards of the same shape get rendered.
+     * @param g graphics context to render to
+     * @param bcDim how big the business card is in pixels
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     * @param useAtlas copy the title columns from the atlas for this font and column geometry
+     * @see PunchAtlas
+     */
+    static void paintBusinessCard(Graphics g, Dimension bcDim, String titleText, String bottomText, boolean useAtlas) {
+
+        // find the biggest font possible given the input text, and where everything goes with that font.
+        CardLayout layout = CardLayout.get(titleText.length(), bottomText.length(), bcDim, ( (Graphics2D) g ).getFontRenderContext());
+
+        paintBusinessCard(g, layout, titleText, bottomText, useAtlas);
+
+    }
+
+    /**
+     * Draws the business card by replaying a layout that was worked out ahead of time for text of these lengths.  Every
+     * card drawn, whichever way it was asked for, comes through here and is timed in RenderMetrics and CardEvents.
+     * @param g graphics context to render to
+     * @param layout where everything goes, must be for text of the same lengths as titleText and bottomText
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     * @param useAtlas copy the title columns from the atlas for this layout
+     */
+    static void paintBusinessCard(Graphics g, CardLayout layout, String titleText, String bottomText, boolean useAtlas) {
 
+        long start = System.nanoTime();
+        CardEvents.Paint event = null;
 
+        if (CardEvents.enabled()) {
+            event = new CardEvents.Paint();
+            event.begin();
+        }
 
-        // find the biggest font possible given the input text.
-        g.setFont( findFont(bcDim, ( (Graphics2D) g ).getFontRenderContext() ) );
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, layout.width, layout.height);
 
-        // ok, we have a font of appropriate size, so get the needed metrics from that font.
-        LineMetrics topLM = g.getFont().getLineMetrics(mTitleText, ((Graphics2D) g).getFontRenderContext());
-        LineMetrics bottomLM = g.getFont().getLineMetrics(mBottomText, ((Graphics2D) g).getFontRenderContext());
-        double tallestChar = Math.max(topLM.getHeight(), bottomLM.getHeight());
+        g.setColor(Color.BLACK);
+        g.setFont(layout.font());
 
-        Rectangle2D charBounds = g.getFont().getMaxCharBounds( ((Graphics2D) g).getFontRenderContext() );
-        int widestChar = (int)charBounds.getWidth();
+        int titleLen = layout.titleLen;
 
+        // columns entirely outside of the clip are skipped, so repainting a few columns only costs those few columns
+        int first = 0;
+        int last = titleLen; // exclusive
+        Rectangle clip = g.getClipBounds();
 
-        int titleLen = mTitleText.length();
-        int titleCharSpacing = (int)(widestChar * CHAR_SPACING);  // pixels per title character
-        int titleColStart = (int) ( ( ( bcDim.width - ( bcDim.width * CORNER_PERCENTAGE ) ) / 2) - (( titleLen / 2) * (titleCharSpacing)) + ( bcDim.width * CORNER_PERCENTAGE ) );
+        if (clip != null && titleLen > 0) {
 
-        // ok, we know all of the needed metrics and have are font, we are ready to draw.  One char at a time as well as the punches beneath that char.
-        for (int i = 0; i < mTitleText.length(); i++) {
+            while (first < titleLen && layout.columnLeft(first) + layout.titleCharSpacing <= clip.x) {
+                first++;
+            }
 
-           punchLetter(mTitleText.charAt(i), i, titleColStart, titleCharSpacing, tallestChar, charBounds.getWidth(), bcDim.getHeight(), topLM, g);
+            while (last > first && layout.columnLeft(last - 1) >= clip.x + clip.width) {
+                last--;
+            }
 
         }
 
-        // and finally the optional text at the bottom of the card
-        int bottomLen = mBottomText.length();
-        int bottomCol = (bcDim.width / 2) - ((bottomLen/2)*widestChar);
-        g.drawString(mBottomText, bottomCol, (int)(bcDim.getHeight() - bottomLM.getDescent()) );
+        // atlas tiles are opaque, so they go down before anything else is drawn.  Chars without a tile are drawn below.
+        if (useAtlas && titleLen > 0) {
 
-    }
+            PunchAtlas atlas = PunchAtlas.get(layout);
 
-    /**
-     * Uses the size of the input text and the business card size to find the biggest font possible that will still
-     * fit on the card given the following criteria:
-     * <ul>The email address (top line) and punches can not start any farther left than the upper left corner cut (CORNER_PERCENTAGE)
-     * <ul>There are 9 rows (the two text lines and 7 punches for each bit in a char)
-     * <ul>There is a spacing added between each char in the top text line as well as the punches (CHAR_SPACING)
-     *
-     * @param cardDim dimensions of the overall business card
-     * @param frc used to get font metrics
-     * @see TTF
-     * @return biggest Font that will fit within all the restrictions.
-     */
-    private Font findFont(Dimension cardDim, FontRenderContext frc) {
+            for (int i = first; i < last; i++) {
+                atlas.drawColumn(g, titleText.charAt(i), layout.columnX[i]);
+            }
+
+        }
+
+        // upper left corner cut line and corner markers
+        int[] lines = layout.lines;
+
+        for (int i = 0; i < lines.length; i += 4) {
+            g.drawLine(lines[i], lines[i+1], lines[i+2], lines[i+3]);
+        }
 
-        int ptSize = 1;
+        // One char at a time as well as the punches beneath that char.
+        for (int i = first; i < last; i++) {
 
-        int titleCols = (int)(mTitleText.length() * CHAR_SPACING);
+            if (!useAtlas || !PunchAtlas.hasTile(titleText.charAt(i))) {
+                punchLetter(titleText.charAt(i), layout.columnX[i], layout.punchX[i], layout, g);
+            }
 
-        // which text line is longer?  The bottom one shouldn't be too much longer than the top, but that's up to the user.
-        // If they like what they see then swell.
-        int maxNumCols = Math.max(titleCols, mBottomText.length());
+        }
 
-        Font f = TTF.getFont(ptSize);
-        LineMetrics topLM = f.getLineMetrics(mTitleText, frc);
-        LineMetrics bottomLM = f.getLineMetrics(mBottomText, frc);
+        // and finally the optional text at the bottom of the card
+        g.drawString(bottomText, layout.bottomX, layout.bottomBaseline);
 
-        double maxCharHeight = Math.max(topLM.getHeight(), bottomLM.getHeight()); // what is the height of the tallest char?
-        double maxCharWidth = f.getMaxCharBounds(frc).getWidth(); // what is the width of the widest char?
+        RenderMetrics.PAINT.stop(start);
 
-        // need top row, 7 rows for bits, bottom row: total 9 rows
-        double maxCharWidthAllowed = ( cardDim.getWidth() * (1 - CORNER_PERCENTAGE) ) / maxCharWidth;
-        double maxRowHeight = cardDim.getHeight()/9;
-        double maxWidthInPixelsWithCurrentFontsize = maxCharWidth * maxNumCols;
+        if (event != null && event.shouldCommit()) {
 
-        // get as big of a font as possible
-        while (maxCharHeight < maxRowHeight && maxCharWidth < maxCharWidthAllowed && maxWidthInPixelsWithCurrentFontsize < ( cardDim.getWidth() * ( 1 - CORNER_PERCENTAGE) ) ) {
-            ptSize++;
-            f = TTF.getFont(ptSize);
-            topLM = f.getLineMetrics(mTitleText, frc);
-            bottomLM = f.getLineMetrics(mBottomText, frc);
+            event.titleLength = titleLen;
+            event.bottomLength = layout.bottomLen;
+            event.pointSize = layout.fit.ptSize;
+            event.columnsDrawn = last - first;
+            event.atlas = useAtlas;
+            event.commit();
 
-            maxCharHeight = Math.max(topLM.getHeight(), bottomLM.getHeight());
-            maxCharWidth = f.getMaxCharBounds(frc).getWidth();
-            maxWidthInPixelsWithCurrentFontsize = maxCharWidth * maxNumCols;
         }
 
-        // the while loop will exit with a point size one too large.
-        return TTF.getFont(ptSize - 1);
-
     }
 
     /**
      * Draw a char and up to 7 punches (rectangles) underneath representing the ASCII coding of the char.
      * @param c the char to draw
-     * @param columnOffset which char in the top text string we are drawing
-     * @param colStart where on the image to start drawing, columnwise
-     * @param titleCharSpacing how much extra spacing between each char
-     * @param maxCharHeight largest char height we have to draw
-     * @param maxCharWidth largest char width we have to draw
-     * @param cardHeight total card (image) height
-     * @param topLM gets the baseline for the top text line
+     * @param col where on the image to draw the char, columnwise
+     * @param punchCol where on the image to draw the punches, columnwise
+     * @param layout gives the baseline, punch rows and punch size
      * @param g the graphics context to draw to
      */
-    private void punchLetter(char c, int columnOffset, int colStart, int titleCharSpacing, double maxCharHeight, double maxCharWidth, double cardHeight, LineMetrics topLM, Graphics g) {
+    static void punchLetter(char c, int col, int punchCol, CardLayout layout, Graphics g) {
 
-        int col = colStart + (columnOffset*(titleCharSpacing)); // where do the char and punches start columnwise
-        double punchSpaceTotal = cardHeight - (3 * maxCharHeight); // vertical spacing available for all 7 possible punches
-        int punchAdvance = (int)(punchSpaceTotal / 7); // row increment between punches
-
-        // the dimensions of a punch should be less than most chars and more tall than wide
-        int punchHeight = (int)(maxCharHeight * 0.75);
-        double punchWidth =  titleCharSpacing * 0.25; // keep double to reduce loss of precision in computing punchCol below
-
-        int punchCol = col + (int)(maxCharWidth/2 - punchWidth/2); // where to start a punch at column wise
-
-        g.drawString(Character.toString(c), col, (int)topLM.getAscent()); // draw the current char of the top line
+        g.drawString(charString(c), col, layout.titleBaseline); // draw the current char of the top line
 
         // draw the punches
         char mask = 0x1; // start with the low order bit
-        int row = (int)(maxCharHeight*1.5); // start the first punch lower than the top text line by 1.5 times
 
-        for (int bit = 0; bit < 7; bit++) {
+        for (int bit = 0; bit < CardLayout.PUNCH_ROWS; bit++) {
 
             // if the bit is set, punch it!
             if ( (c & mask) != 0) {
 
-                g.fillRect(punchCol, row, (int)punchWidth, punchHeight);
+                g.fillRect(punchCol, layout.punchY[bit], layout.punchWidth, layout.punchHeight);
 
             }
 
             // go to next bit
             mask = (char)(mask << 1);
-            row += punchAdvance;
 
         }
 
     }
 
     /**
-     * Called each time one of the two text fields is modified to redraw the business card image.
+     * @return the char as a string, without making a new string for 7-bit chars
+     */
+    static String charString(char c) {
+
+        return c < ASCII.length ? ASCII[c] : String.valueOf(c);
+
+    }
+
+    /**
+     * Called each time one of the two text fields is modified to redraw the business card image.  Changes are
+     * coalesced, no matter how fast they come in the card is drawn at most once per frame.
      * @param titleText top line
      * @param bottomText bottom line
      */
@@ -235,7 +304,200 @@ class BusinessCardCanvas extends JPanel {
 
         mTitleText = titleText;
         mBottomText = bottomText;
-        repaint();
+
+        if (!mFrameTimer.isRunning()) {
+
+            long sinceLastFrame = (System.nanoTime() - mLastFrame) / 1000000;
+            mFrameTimer.setInitialDelay((int)Math.max(0, FRAME_MS - sinceLastFrame));
+            mFrameTimer.start();
+
+        }
+
+    }
+
+    /**
+     * Brings the back buffer up to date with the latest text and repaints only what changed.
+     */
+    private void drawFrame() {
+
+        mLastFrame = System.nanoTime();
+
+        if (backBuffer() == null) {
+            repaint();
+            return;
+        }
+
+        Rectangle dirty = drawBackBuffer();
+
+        if (dirty != null) {
+            repaint(dirty);
+        }
+
+    }
+
+    /**
+     * Draws whatever changed since the back buffer was last drawn.  If the font and card size are the same as last time,
+     * only the title columns that changed (moved, added, removed or have a different char) and the bottom line if it
+     * changed are drawn.  Otherwise the whole card is copied from the RenderCache, so going back to text that was
+     * already on screen, like after a backspace, costs a copy rather than a paint.
+     * @return the part of the card that was drawn, null if nothing changed
+     */
+    private Rectangle drawBackBuffer() {
+
+        Graphics2D g = mBackBuffer.createGraphics();
+        RenderProfile.BATCH.applyTo(g);
+
+        try {
+
+            Dimension bcDim = new Dimension(mBackBuffer.getWidth(), mBackBuffer.getHeight());
+            CardLayout layout = CardLayout.get(mTitleText.length(), mBottomText.length(), bcDim, g.getFontRenderContext());
+            CardLayout drawn = mDrawnLayout;
+            Rectangle dirty;
+
+            if (drawn == null || drawn.fit != layout.fit || drawn.width != layout.width || drawn.height != layout.height) {
+
+                dirty = new Rectangle(0, 0, layout.width, layout.height);
+
+            } else {
+
+                dirty = dirtyColumns(drawn, mDrawnTitle, layout, mTitleText);
+
+                if (!mDrawnBottom.equals(mBottomText)) {
+                    int top = (int)(layout.bottomBaseline - layout.fit.ascent) - 1;
+                    dirty = union(dirty, new Rectangle(0, top, layout.width, layout.height - top));
+                }
+
+                if (dirty == null) {
+                    return null;
+                }
+
+            }
+
+            if (dirty.width == layout.width && dirty.height == layout.height && g.getTransform().isIdentity()) {
+
+                // the whole card, which may well have been drawn before
+                g.drawImage(cachedCard(layout), 0, 0, null);
+
+            } else {
+
+                g.setClip(dirty);
+                paintBusinessCard(g, layout, mTitleText, mBottomText, false);
+
+            }
+
+            mDrawnLayout = layout;
+            mDrawnTitle = mTitleText;
+            mDrawnBottom = mBottomText;
+
+            return dirty;
+
+        } finally {
+
+            g.dispose();
+
+        }
+
+    }
+
+    /**
+     * Gets the card for the current text out of the render cache, drawing it into the cache if it's not there.
+     * @param layout where everything goes for the current text
+     * @return the card, in an image that is reused by the next call
+     */
+    private BufferedImage cachedCard(CardLayout layout) {
+
+        if (mCardImage == null || mCardImage.getWidth() != layout.width || mCardImage.getHeight() != layout.height) {
+            mCardImage = new BufferedImage(layout.width, layout.height, BufferedImage.TYPE_BYTE_GRAY);
+        }
+
+        byte[] pixels = ((DataBufferByte)mCardImage.getRaster().getDataBuffer()).getData();
+        RenderCache.Key key = RenderCache.key("gray", mTitleText, mBottomText, layout.width, layout.height,
+                Supersampler.SCREEN_DPI);
+
+        byte[] cached = RenderCache.shared().get(key);
+
+        if (cached != null) {
+
+            System.arraycopy(cached, 0, pixels, 0, pixels.length);
+
+        } else {
+
+            Graphics2D g = mCardImage.createGraphics();
+            RenderProfile.BATCH.applyTo(g);
+            paintBusinessCard(g, layout, mTitleText, mBottomText, false);
+            g.dispose();
+
+            RenderCache.shared().put(key, pixels.clone());
+
+        }
+
+        return mCardImage;
+
+    }
+
+    /**
+     * Both layouts have the same font and so the same column size, so the columns that have to be drawn again are the
+     * ones that moved, came or went or have a different char in them.
+     * @return the cells of those columns before and after, null if there are none
+     */
+    private static Rectangle dirtyColumns(CardLayout before, String beforeText, CardLayout after, String afterText) {
+
+        Rectangle dirty = null;
+
+        for (int i = 0; i < Math.max(before.titleLen, after.titleLen); i++) {
+
+            boolean inBefore = i < before.titleLen;
+            boolean inAfter = i < after.titleLen;
+
+            if (inBefore && inAfter && before.columnX[i] == after.columnX[i] && beforeText.charAt(i) == afterText.charAt(i)) {
+                continue;
+            }
+
+            if (inBefore) {
+                dirty = union(dirty, new Rectangle(before.columnLeft(i), 0, before.titleCharSpacing, before.columnHeight));
+            }
+
+            if (inAfter) {
+                dirty = union(dirty, new Rectangle(after.columnLeft(i), 0, after.titleCharSpacing, after.columnHeight));
+            }
+
+        }
+
+        return dirty;
+
+    }
+
+    private static Rectangle union(Rectangle a, Rectangle b) {
+
+        return a == null ? b : a.union(b);
+
+    }
+
+    /**
+     * @return the back buffer, (re)created if the canvas changed size, null if there can't be one (not on screen)
+     */
+    private VolatileImage backBuffer() {
+
+        int w = getWidth();
+        int h = getHeight();
+
+        if (w <= 0 || h <= 0) {
+            return null;
+        }
+
+        if (mBackBuffer == null || mBackBuffer.getWidth() != w || mBackBuffer.getHeight() != h
+                || mBackBuffer.validate(getGraphicsConfiguration()) == VolatileImage.IMAGE_INCOMPATIBLE) {
+
+            if (mBackBuffer != null) {
+                mBackBuffer.flush();
+            }
+
+            mBackBuffer = createVolatileImage(w, h);
+            mDrawnLayout = null;
+
+        }
+
+        return mBackBuffer;
 
     }
 
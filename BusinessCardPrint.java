@@ -17,11 +17,12 @@
 package org.mirly.businesscard;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
 import java.awt.print.PrinterJob;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author David Mirly
@@ -30,71 +31,197 @@ import java.awt.print.PrinterJob;
  *
  * When the print button is clicked, this class handles printing.
  *
+ * Cards are imposed on as many pages as it takes, as many cards per page as fit on the paper chosen.  Nothing is
+ * rendered ahead of time: each time the print system asks for a page, the cards on that page are drawn straight onto
+ * the printer's graphics context, so a job of thousands of cards starts spooling right away and only ever has one page
+ * worth of work in flight.  Pages are drawn with the PRINT RenderProfile whatever hints the printer's graphics came
+ * with.
+ *
+ * The print system may ask for the same page more than once, each time is timed in RenderMetrics and recorded as a
+ * CardEvents.PrintPage event.
+ *
  */
 class BusinessCardPrint implements Printable {
 
-    private final BufferedImage mImage;
+    private static final double CARD_HEIGHT = 2;  // in inches
+    private static final double CARD_WIDTH = 3.5; // in inches
+    private static final double CARD_SPACING = 0.25; // 1/4 of an inch
+
+    private final List<CardRecord> mCards;
+    private final CardFitting mFitting;
+    private final boolean mFillPage;
 
     /**
      *
-     * @param inImage the 3.5" x 2" business card image, print as many of these as will fit on the page
+     * @param cards the 3.5" x 2" business cards to print, each printed once, in order
+     */
+    public BusinessCardPrint(List<CardRecord> cards)
+    {
+        this(cards, CardFitting.eachShape());
+    }
+
+    /**
+     * @param cards the 3.5" x 2" business cards to print, each printed once, in order
+     * @param fitting how the cards get their font size
+     */
+    BusinessCardPrint(List<CardRecord> cards, CardFitting fitting)
+    {
+        this(cards, fitting, false);
+    }
+
+    private BusinessCardPrint(List<CardRecord> cards, CardFitting fitting, boolean fillPage)
+    {
+        mCards = cards;
+        mFitting = fitting;
+        mFillPage = fillPage;
+    }
+
+    /**
+     * @param card the business card to print, as many of these as will fit on one page
+     * @return a print job of a single page full of the one card
      */
-    public BusinessCardPrint(BufferedImage inImage)
+    static BusinessCardPrint sheetOf(CardRecord card)
     {
-        mImage = inImage;
+        return new BusinessCardPrint(Collections.singletonList(card), CardFitting.eachShape(), true);
     }
 
     /**
-     * User has OKed the print dialog after clicking the print button.  Draw as many cards as will
-     * fit on whatever paper size chosen and print.
+     * User has OKed the print dialog after clicking the print button.  Draw the cards that land on this page of
+     * whatever paper size chosen.
      *
      * @param g graphics context of printer page to render business cards to
      * @param pf tells useful information such as how big is the page we are printing to
-     * @param page we only have one page, so this better be zero
+     * @param page which page to print, starting at zero
      * @return PAGE_EXISTS is all goes well, NO_SUCH_PAGE if invalid page number
      * @throws PrinterException
      */
     public int print(Graphics g, PageFormat pf, int page) throws
             PrinterException {
 
-        if (page > 0) {
+        int pageCount = getPageCount(pf);
+
+        if (page < 0 || page >= pageCount) {
             return NO_SUCH_PAGE;
         }
 
-        double CARD_HEIGHT = 2;  // in inches
-        double CARD_WIDTH = 3.5; // in inches
-        double CARD_SPACING = 0.25; // 1/4 of an inch
+        long start = System.nanoTime();
+        CardEvents.PrintPage event = null;
 
-        // translate the origin to the top leftmost printable point
+        if (CardEvents.enabled()) {
+            event = new CardEvents.PrintPage();
+            event.begin();
+        }
+
+        // the cells get the print profile from this
         Graphics2D g2d = (Graphics2D)g;
-        g2d.translate(pf.getImageableX(), pf.getImageableY());
+        RenderProfile.PRINT.applyTo(g2d);
 
-        // in 1/72's of an inch, only can print inside these dimensions (not in the margins)
-        double pageWidth = pf.getImageableWidth();
-        double pageHeight = pf.getImageableHeight();
+        int drawn = drawPage(g2d, pf, page);
+
+        RenderMetrics.PRINT_PAGE.stop(start);
+        RenderMetrics.PRINT_CARDS.add(drawn);
+
+        if (event != null && event.shouldCommit()) {
+
+            event.page = page;
+            event.pageCount = pageCount;
+            event.cards = drawn;
+            event.commit();
+
+        }
+
+        return PAGE_EXISTS;
+    }
+
+    /**
+     * Draws the cards of a page, skipping any whose cell is outside of the clip.  Rendering hints are left as they are.
+     * @param g2d graphics of the page, with the origin at the top left of the paper, in 1/72's of an inch
+     * @param pf the page format printed to
+     * @param page which page, starting at zero
+     * @return how many cards were drawn
+     */
+    int drawPage(Graphics2D g2d, PageFormat pf, int page) {
 
         // ok, so given the page size, card size and spacing, how many can we fit?
-        int cols = (int)(pageWidth / convertInchesToPixels(CARD_WIDTH + CARD_SPACING));
-        int rows = (int)(pageHeight / convertInchesToPixels(CARD_HEIGHT + CARD_SPACING));
+        int cols = columnsPerPage(pf);
+        int rows = rowsPerPage(pf);
 
-        int x = 0;
+        // translate the origin to the top leftmost printable point
+        g2d.translate(pf.getImageableX(), pf.getImageableY());
+
+        int cardWidth = convertInchesToPixels(CARD_WIDTH);
+        int cardHeight = convertInchesToPixels(CARD_HEIGHT);
+        int spacing = convertInchesToPixels(CARD_SPACING);
+        Dimension bcDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+        Rectangle clip = g2d.getClipBounds();
+
+        int card = mFillPage ? 0 : page * cols * rows;
+        int drawn = 0;
         int y = 0;
 
         for (int r = 0; r < rows; r++) {
 
-            for (int c = 0; c < cols; c++) {
-                g2d.drawImage(mImage, null, x, y);
-                x += convertInchesToPixels(CARD_WIDTH);
-                x += convertInchesToPixels(CARD_SPACING);
+            int x = 0;
+
+            for (int c = 0; c < cols && card < mCards.size(); c++) {
+
+                if (clip == null || clip.intersects(x, y, cardWidth, cardHeight)) {
+
+                    CardRecord record = mCards.get(card);
+
+                    // each card gets its own origin and is clipped to its own cell
+                    Graphics2D cell = (Graphics2D)g2d.create(x, y, cardWidth, cardHeight);
+                    CardLayout layout = mFitting.layout(record.title.length(), record.bottom.length(), bcDim,
+                            cell.getFontRenderContext());
+                    BusinessCardCanvas.paintBusinessCard(cell, layout, record.title, record.bottom, false);
+                    cell.dispose();
+                    drawn++;
+
+                }
+
+                if (!mFillPage) {
+                    card++;
+                }
+
+                x += cardWidth + spacing;
             }
 
-            x = 0;
-            y += convertInchesToPixels(CARD_HEIGHT);
-            y += convertInchesToPixels(CARD_SPACING);
+            y += cardHeight + spacing;
 
         }
 
-        return PAGE_EXISTS;
+        g2d.translate(-pf.getImageableX(), -pf.getImageableY());
+        return drawn;
+
+    }
+
+    /**
+     * @param pf the page format printed to
+     * @return how many pages it takes to print all of the cards on this page format
+     */
+    int getPageCount(PageFormat pf) {
+
+        int perPage = columnsPerPage(pf) * rowsPerPage(pf);
+
+        if (perPage == 0) {
+            return 0;
+        }
+
+        return mFillPage ? 1 : (mCards.size() + perPage - 1) / perPage;
+
+    }
+
+    private int columnsPerPage(PageFormat pf) {
+
+        // in 1/72's of an inch, only can print inside these dimensions (not in the margins)
+        return (int)(pf.getImageableWidth() / convertInchesToPixels(CARD_WIDTH + CARD_SPACING));
+
+    }
+
+    private int rowsPerPage(PageFormat pf) {
+
+        return (int)(pf.getImageableHeight() / convertInchesToPixels(CARD_HEIGHT + CARD_SPACING));
+
     }
 
     /**
@@ -107,9 +234,12 @@ class BusinessCardPrint implements Printable {
     }
 
     /**
-     * Called when print button clicked.  Opens print dialog and if OKed, calls print(...)
+     * Called when print button clicked.  Opens print dialog and if OKed, puts the job in the print queue which will
+     * call print(...) off of the event thread.
+     * @param queue where the job waits its turn to print
+     * @param name what to call the job in the queue
      */
-    public void doPrint() {
+    public void doPrint(PrintQueue queue, String name) {
 
         PrinterJob job = PrinterJob.getPrinterJob();
         job.setPrintable(this);
@@ -118,15 +248,7 @@ class BusinessCardPrint implements Printable {
 
         if (ok) {
 
-            try {
-
-                job.print();
-
-            } catch (PrinterException pe) {
-
-                pe.printStackTrace();
-
-            }
+            queue.submit(job, this, name);
 
         }
     }
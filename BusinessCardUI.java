@@ -19,7 +19,6 @@ package org.mirly.businesscard;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
 
 /**
  * @author David Mirly
@@ -32,6 +31,7 @@ import java.awt.image.BufferedImage;
 class BusinessCardUI extends KeyAdapter implements ActionListener {
 
     private final BusinessCardCanvas mCanvas;
+    private final PrintQueue mPrintQueue = new PrintQueue();
     private JTextField mTitle;
     private JTextField mBottomField;
     private JLabel only7bit;
@@ -136,21 +136,22 @@ class BusinessCardUI extends KeyAdapter implements ActionListener {
 
     }
 
+    JComponent getPrintQueuePanel() {
+
+        return mPrintQueue.getPanel();
+
+    }
+
     /**
      * User clicked the print button!  Yay!
      * @param ae only action we have is the print button
      */
     public void actionPerformed(ActionEvent ae) {
 
-        // get the image of the business card
-        BufferedImage image = new BufferedImage(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
-        Graphics2D g2 = image.createGraphics();
-        mCanvas.paintBusinessCard(g2, new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT));
-        g2.dispose();
-
-        // and print it
-        BusinessCardPrint bcp = new BusinessCardPrint(image);
-        bcp.doPrint();
+        // print a page full of the business card as it is now, the queue does the printing so the UI doesn't freeze
+        CardRecord card = mCanvas.getCard();
+        BusinessCardPrint bcp = BusinessCardPrint.sheetOf(card);
+        bcp.doPrint(mPrintQueue, card.title);
 
 
     }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Flight Recorder events for the stages of rendering a card.  They cost next to nothing unless a recording is running,
+ * so they are always in place.  The one thing that is not cheap is loading the first event class, which sets up the
+ * recorder's metadata whether anything records or not, a few hundred ms.  So events are only created once the
+ * recorder is running, see enabled().  To see where the time of a batch run or a slow print goes, start it with
+ *
+ *     java -XX:StartFlightRecording=filename=cards.jfr,settings=profile ...
+ *
+ * and open cards.jfr in JDK Mission Control, or list the events with
+ *
+ *     jfr print --categories "Business Card" cards.jfr
+ *
+ * RenderMetrics keeps running totals of the same stages without needing a recording.
+ */
+final class CardEvents {
+
+    private static final String CATEGORY = "Business Card";
+
+    private CardEvents() {
+    }
+
+    /**
+     * @return whether the Flight Recorder has been started in this JVM, either on the command line or later on with
+     * jcmd.  Until it has, nothing would be recorded, so the event classes are left unloaded.
+     */
+    static boolean enabled() {
+
+        return FlightRecorder.isInitialized();
+
+    }
+
+    @Name("org.mirly.businesscard.Fit")
+    @Label("Font Fit")
+    @Description("Search for the biggest point size that fits text of the given lengths on the card")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Fit extends Event {
+
+        @Label("Title Length")
+        int titleLength;
+
+        @Label("Bottom Length")
+        int bottomLength;
+
+        @Label("Card Width")
+        int width;
+
+        @Label("Card Height")
+        int height;
+
+        @Label("Point Size")
+        float pointSize;
+
+        @Label("Search Steps")
+        @Description("Point sizes measured during the search")
+        int searchSteps;
+
+    }
+
+    @Name("org.mirly.businesscard.Paint")
+    @Label("Paint Card")
+    @Description("One card drawn onto a graphics context")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Paint extends Event {
+
+        @Label("Title Length")
+        int titleLength;
+
+        @Label("Bottom Length")
+        int bottomLength;
+
+        @Label("Point Size")
+        float pointSize;
+
+        @Label("Columns Drawn")
+        @Description("Title columns inside the clip, the rest are skipped")
+        int columnsDrawn;
+
+        @Label("Atlas")
+        boolean atlas;
+
+    }
+
+    @Name("org.mirly.businesscard.PrintPage")
+    @Label("Print Page")
+    @Description("One page of cards drawn for the print system")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class PrintPage extends Event {
+
+        @Label("Page")
+        int page;
+
+        @Label("Page Count")
+        int pageCount;
+
+        @Label("Cards")
+        int cards;
+
+    }
+
+    @Name("org.mirly.businesscard.FontLoad")
+    @Label("Font Load")
+    @Description("FreeMono.ttf and its metrics read")
+    @Category(CATEGORY)
+    static final class FontLoad extends Event {
+
+        @Label("Source")
+        String source;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+    }
+
+    @Name("org.mirly.businesscard.FontDerive")
+    @Label("Font Derive")
+    @Description("A font of a new point size or transform derived from FreeMono")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class FontDerive extends Event {
+
+        @Label("Point Size")
+        float pointSize;
+
+        @Label("Transformed")
+        boolean transformed;
+
+    }
+
+}
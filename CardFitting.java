@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * How the cards of one run get their font size, and the layouts that come of it.
+ *
+ * Every shape of card (title and bottom length) in the run is fitted once and its layout kept for the rest of the run,
+ * so fitting costs as many fits as there are shapes, however many cards there are.  CardLayout.get caches too, but it
+ * is bounded and shared with everything else, and a big roster can have more shapes than it keeps.
+ *
+ * Fitted each shape on its own, a short address gets big type and a long one small type.  For a run that should look
+ * like a set, every card can be given the one size the longest card of the run fits at instead, see shared().  The
+ * longest card is the one with the most columns, which is what fitting goes by (see FontFitter.columns), and whatever
+ * fits that many columns fits fewer.
+ *
+ * The businesscard.fit system property picks one, "shape" (the default) or "shared", see forRoster().
+ */
+final class CardFitting {
+
+    static final String PROPERTY = "businesscard.fit";
+
+    // the shape every card is fitted as, -1 for each its own
+    private final int mFitTitleLen;
+    private final int mFitBottomLen;
+
+    private final ConcurrentMap<CardLayout.Key, CardLayout> mLayouts = new ConcurrentHashMap<>();
+
+    private CardFitting(int fitTitleLen, int fitBottomLen) {
+
+        mFitTitleLen = fitTitleLen;
+        mFitBottomLen = fitBottomLen;
+
+    }
+
+    /**
+     * @return a fitting that gives each shape of card the biggest size it fits at
+     */
+    static CardFitting eachShape() {
+
+        return new CardFitting(-1, -1);
+
+    }
+
+    /**
+     * @param cards the cards of the run
+     * @return a fitting that gives every card the size the longest of the cards fits at
+     */
+    static CardFitting shared(List<CardRecord> cards) {
+
+        CardFitting longest = new CardFitting(0, 0);
+
+        for (CardRecord card : cards) {
+            longest = longest.longer(card);
+        }
+
+        return longest;
+
+    }
+
+    /**
+     * Reads the roster to find its longest card, the records are not kept.
+     * @param roster the roster of the run, which has to be read again to render it
+     * @return a fitting that gives every card the size the longest card of the roster fits at
+     * @throws IOException if the roster can not be read
+     */
+    static CardFitting shared(RosterReader roster) throws IOException {
+
+        CardFitting[] longest = { new CardFitting(0, 0) };
+        roster.forEachInOrder(entry -> longest[0] = longest[0].longer(entry.record));
+        return longest[0];
+
+    }
+
+    /**
+     * Sets up the fitting the businesscard.fit system property asks for.
+     * @param rosterName roster file name, read through if a shared size is asked for
+     * @return the fitting
+     * @throws IOException if the roster can not be read
+     * @throws IllegalArgumentException if the property is not shape or shared, or a shared size is asked for a roster
+     * on stdin, which can't be read twice
+     */
+    static CardFitting forRoster(String rosterName) throws IOException {
+
+        if (!sharedAskedFor()) {
+            return eachShape();
+        }
+
+        if (rosterName.equals("-")) {
+            throw new IllegalArgumentException("A shared size needs the whole roster first, it can't come from stdin.");
+        }
+
+        return shared(new RosterReader(rosterName, null));
+
+    }
+
+    /**
+     * Sets up the fitting the businesscard.fit system property asks for, for cards that are all read already.
+     * @param cards the cards of the run
+     * @return the fitting
+     * @throws IllegalArgumentException if the property is not shape or shared
+     */
+    static CardFitting forCards(List<CardRecord> cards) {
+
+        return sharedAskedFor() ? shared(cards) : eachShape();
+
+    }
+
+    private static boolean sharedAskedFor() {
+
+        String fit = System.getProperty(PROPERTY, "shape");
+
+        if (!fit.equals("shape") && !fit.equals("shared")) {
+            throw new IllegalArgumentException("Unknown " + PROPERTY + " " + fit + ", must be shape or shared.");
+        }
+
+        return fit.equals("shared");
+
+    }
+
+    /**
+     * @return the fitting written out, for handing to another process, see parse()
+     */
+    String argument() {
+
+        return mFitTitleLen < 0 ? "shape" : mFitTitleLen + "x" + mFitBottomLen;
+
+    }
+
+    /**
+     * @param argument what argument() gave
+     * @return a fitting like the one that gave it, with no layouts yet
+     * @throws IllegalArgumentException if that isn't what it is
+     */
+    static CardFitting parse(String argument) {
+
+        if (argument.equals("shape")) {
+            return eachShape();
+        }
+
+        String[] lengths = argument.split("x");
+
+        if (lengths.length != 2) {
+            throw new IllegalArgumentException("Not a fitting " + argument);
+        }
+
+        return new CardFitting(Integer.parseInt(lengths[0]), Integer.parseInt(lengths[1]));
+
+    }
+
+    /**
+     * Gets the layout of a card of this shape, fitting it the first time the shape comes up.
+     * @param titleLen number of chars in the top line
+     * @param bottomLen number of chars in the bottom line
+     * @param bcDim how big the business card is in pixels
+     * @param frc the font metrics depend on this
+     * @return the layout, the same one every time for the same arguments
+     */
+    CardLayout layout(int titleLen, int bottomLen, Dimension bcDim, FontRenderContext frc) {
+
+        CardLayout.Key key = new CardLayout.Key(titleLen, bottomLen, bcDim.width, bcDim.height, frc);
+        CardLayout layout = mLayouts.get(key);
+
+        if (layout == null) {
+
+            FontFitter.Metrics fit = mFitTitleLen < 0 ? FontFitter.fit(titleLen, bottomLen, bcDim, frc)
+                    : CardLayout.get(mFitTitleLen, mFitBottomLen, bcDim, frc).fit;
+
+            layout = new CardLayout(titleLen, bottomLen, bcDim, fit);
+            CardLayout prev = mLayouts.putIfAbsent(key, layout);
+
+            if (prev != null) {
+                layout = prev;
+            }
+
+        }
+
+        return layout;
+
+    }
+
+    /**
+     * @return whether a card of this shape is fitted as itself, which is how it is drawn anywhere else
+     */
+    boolean fitsOwnShape(int titleLen, int bottomLen) {
+
+        return mFitTitleLen < 0 || sharedColumns() == FontFitter.columns(titleLen, bottomLen);
+
+    }
+
+    /**
+     * @return the number of columns every card is fitted for, -1 if each is fitted for its own
+     */
+    int sharedColumns() {
+
+        return mFitTitleLen < 0 ? -1 : FontFitter.columns(mFitTitleLen, mFitBottomLen);
+
+    }
+
+    /**
+     * @return a shared fitting for whichever of this one's shape and the card's needs more columns
+     */
+    private CardFitting longer(CardRecord card) {
+
+        int titleLen = card.title.length();
+        int bottomLen = card.bottom.length();
+
+        return FontFitter.columns(titleLen, bottomLen) > FontFitter.columns(mFitTitleLen, mFitBottomLen)
+                ? new CardFitting(titleLen, bottomLen) : this;
+
+    }
+
+}
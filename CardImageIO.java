@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Writes rendered business card images to files, and reads them back for checking.  PNG goes through ImageIO, or
+ * PngCardWriter for gray images written to a stream.  PBM (the binary "P4" flavor) is simple enough to write by hand
+ * and is what most RIPs and plotters will take without complaint.
+ */
+final class CardImageIO {
+
+    private CardImageIO() {
+    }
+
+    /**
+     * Writes the card image to a PNG file.
+     * @param image card image to write
+     * @param file where to write it
+     * @throws IOException if ImageIO can not write the file
+     */
+    static void writePng(BufferedImage image, File file) throws IOException {
+
+        Setup.imageIO();
+
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer available for " + file);
+        }
+
+    }
+
+    /**
+     * Writes the card image as a PNG to the stream.  The stream is not closed.  Gray images, which is what cards are
+     * rendered as, go through a PngCardWriter that doesn't allocate per image, anything else through ImageIO.
+     * @param image card image to write
+     * @param out where to write it
+     * @throws IOException if the stream can not be written
+     */
+    static void writePng(BufferedImage image, OutputStream out) throws IOException {
+
+        if (PngCardWriter.canWrite(image)) {
+            PngCardWriter.write(image, out);
+            return;
+        }
+
+        Setup.imageIO();
+
+        if (!ImageIO.write(image, "png", out)) {
+            throw new IOException("No PNG writer available");
+        }
+
+    }
+
+    /**
+     * Writes the card image to a binary PBM file.  Anything darker than middle gray is a black pixel.
+     * @param image card image to write
+     * @param file where to write it
+     * @throws IOException if the file can not be written
+     */
+    static void writePbm(BufferedImage image, File file) throws IOException {
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            writePbm(image, out);
+        }
+
+    }
+
+    /**
+     * Writes the card image as a binary PBM to the stream.  The stream is not closed.
+     * @param image card image to write
+     * @param out where to write it
+     * @throws IOException if the stream can not be written
+     */
+    static void writePbm(BufferedImage image, OutputStream out) throws IOException {
+
+        int w = image.getWidth();
+        int h = image.getHeight();
+
+        out.write(("P4\n" + w + " " + h + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        if (BinaryCardRaster.isBinary(image)) {
+            writePbmBits(image, out);
+            return;
+        }
+
+        Raster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        int[] pixels = new int[w * bands];
+        byte[] row = new byte[(w + 7) / 8];
+
+        for (int y = 0; y < h; y++) {
+
+            raster.getPixels(0, y, w, 1, pixels);
+            Arrays.fill(row, (byte)0);
+
+            for (int x = 0; x < w; x++) {
+
+                // PBM has 1 as black, so a set bit is a dark pixel
+                if (pixels[x * bands] < 128) {
+                    row[x >> 3] |= (byte)(0x80 >> (x & 7));
+                }
+
+            }
+
+            out.write(row);
+
+        }
+
+    }
+
+    /**
+     * Reads a card image from a PNG, or from a binary PBM like writePbm writes.
+     * @param file image to read, a .pbm is read as PBM, anything else goes through ImageIO
+     * @return the image, 1 bit for PBM
+     * @throws IOException if the file can not be read or is not an image
+     */
+    static BufferedImage read(File file) throws IOException {
+
+        if (file.getName().endsWith(".pbm")) {
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                return readPbm(in);
+            }
+
+        }
+
+        Setup.imageIO();
+        BufferedImage image = ImageIO.read(file);
+
+        if (image == null) {
+            throw new IOException("Not an image " + file);
+        }
+
+        return image;
+
+    }
+
+    /**
+     * Reads a binary ("P4") PBM into a 1 bit image.
+     * @param in positioned at the start of the PBM, left after the last row
+     * @return the image
+     * @throws IOException if the stream fails or is not a binary PBM
+     */
+    static BufferedImage readPbm(InputStream in) throws IOException {
+
+        if (in.read() != 'P' || in.read() != '4') {
+            throw new IOException("Not a binary PBM");
+        }
+
+        int w = readPbmNumber(in);
+        int h = readPbmNumber(in); // the single whitespace after the height has been read too
+
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] bits = BinaryCardRaster.data(image);
+        int stride = BinaryCardRaster.stride(image);
+        int rowBytes = (w + 7) / 8;
+
+        for (int y = 0; y < h; y++) {
+
+            int base = y * stride;
+            int n = 0;
+
+            while (n < rowBytes) {
+
+                int read = in.read(bits, base + n, rowBytes - n);
+
+                if (read < 0) {
+                    throw new IOException("PBM ends early");
+                }
+
+                n += read;
+
+            }
+
+            // PBM has 1 as black, the image has 0 as black
+            for (int i = 0; i < rowBytes; i++) {
+                bits[base + i] = (byte)~bits[base + i];
+            }
+
+        }
+
+        return image;
+
+    }
+
+    /**
+     * Reads a header number, skipping the whitespace and comments before it and eating the one whitespace char after.
+     */
+    private static int readPbmNumber(InputStream in) throws IOException {
+
+        int c = in.read();
+
+        while (c == '#' || Character.isWhitespace(c)) {
+
+            if (c == '#') {
+
+                while (c != '\n' && c >= 0) {
+                    c = in.read();
+                }
+
+            }
+
+            c = in.read();
+
+        }
+
+        if (c < '0' || c > '9') {
+            throw new IOException("Bad PBM header");
+        }
+
+        int n = 0;
+
+        while (c >= '0' && c <= '9') {
+            n = n * 10 + (c - '0');
+            c = in.read();
+        }
+
+        return n;
+
+    }
+
+    /**
+     * 1 bit images are already packed the way PBM wants them, except that PBM has 1 as black, so each row only has
+     * to be inverted.
+     */
+    private static void writePbmBits(BufferedImage image, OutputStream out) throws IOException {
+
+        byte[] bits = BinaryCardRaster.data(image);
+        int stride = BinaryCardRaster.stride(image);
+        int rowBytes = (image.getWidth() + 7) / 8;
+        byte[] row = new byte[rowBytes];
+
+        for (int y = 0; y < image.getHeight(); y++) {
+
+            int base = y * stride;
+
+            for (int i = 0; i < rowBytes; i++) {
+                row[i] = (byte)~bits[base + i];
+            }
+
+            out.write(row);
+
+        }
+
+    }
+
+    /**
+     * Sets ImageIO up the first time it is used.  ImageIO takes a good while to load, with its plugin registry, and
+     * cards written through PngCardWriter or as PBM never need it.
+     */
+    private static final class Setup {
+
+        static {
+
+            // cards are small, without this ImageIO buffers each PNG written to a stream in a temp file first
+            ImageIO.setUseCache(false);
+
+        }
+
+        static void imageIO() {
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * All the geometry of a business card, worked out once: the fitted font, the corner cut and markers, where each title
+ * column and its punches go and where the bottom line goes.
+ *
+ * None of it depends on what the text says, only on how long it is, so cards with the same title and bottom lengths
+ * share one layout.  Layouts are immutable and everything a renderer needs is in primitive arrays, so drawing a card is
+ * just a replay of the layout for the chars in the text.  The arrays must not be modified.
+ *
+ * Working out a layout only takes font metrics, so the java.awt.Font is not created until something draws with it.
+ *
+ * @see BusinessCardCanvas#paintBusinessCard(Graphics, CardLayout, String, String, boolean)
+ */
+final class CardLayout {
+
+    static final int PUNCH_ROWS = 7; // one for each bit of a 7-bit char
+
+    // what an untransformed image drawn with the batch profile gets.  Vector output uses this so it matches the images.
+    static final FontRenderContext DEFAULT_FRC = RenderProfile.BATCH.fontRenderContext(null);
+
+    private static final int MARKER_LENGTH = 10; // pixels
+    private static final int MAX_CACHED_LAYOUTS = 256;
+
+    private static final Map<Key, CardLayout> sLayouts = new LinkedHashMap<Key, CardLayout>(16, 0.75f, true) {
+
+        protected boolean removeEldestEntry(Map.Entry<Key, CardLayout> eldest) {
+            return size() > MAX_CACHED_LAYOUTS;
+        }
+
+    };
+
+    final int width;
+    final int height;
+    final int titleLen;
+    final int bottomLen;
+
+    final FontFitter.Metrics fit;
+
+    /** the corner cut line and the corner markers, x1, y1, x2, y2 for each line */
+    final int[] lines;
+
+    final int titleCharSpacing; // pixels per title column
+    final int titleBaseline;
+    /** x of each title char */
+    final int[] columnX;
+    /** x of the punches of each title column */
+    final int[] punchX;
+    /** y of each punch row, low order bit first */
+    final int[] punchY;
+    final int punchWidth;
+    final int punchHeight;
+
+    /** how far left of its char the cell of a title column starts.  Cells are titleCharSpacing wide and never overlap */
+    final int columnInset;
+    /** how far down the cell of a title column goes, it holds the char and all its punches */
+    final int columnHeight;
+
+    final int bottomX;
+    final int bottomBaseline;
+
+    volatile PunchAtlas atlas; // remembered by PunchAtlas.get, so drawing from the atlas doesn't have to look it up
+
+    private volatile Font mFont; // the fitted font, created the first time it is drawn with
+
+    /**
+     * Gets the layout for text of the given lengths on a card of the given size.
+     * @param titleLen number of chars in the top line
+     * @param bottomLen number of chars in the bottom line
+     * @param bcDim how big the business card is in pixels
+     * @param frc the font metrics depend on this
+     * @return the layout, shared with anyone else asking for the same one
+     */
+    static CardLayout get(int titleLen, int bottomLen, Dimension bcDim, FontRenderContext frc) {
+
+        Key key = new Key(titleLen, bottomLen, bcDim.width, bcDim.height, frc);
+
+        synchronized (sLayouts) {
+
+            CardLayout layout = sLayouts.get(key);
+
+            if (layout == null) {
+                layout = new CardLayout(titleLen, bottomLen, bcDim, FontFitter.fit(titleLen, bottomLen, bcDim, frc));
+                sLayouts.put(key, layout);
+            }
+
+            return layout;
+
+        }
+
+    }
+
+    CardLayout(int titleLen, int bottomLen, Dimension bcDim, FontFitter.Metrics fit) {
+
+        this.width = bcDim.width;
+        this.height = bcDim.height;
+        this.titleLen = titleLen;
+        this.bottomLen = bottomLen;
+        this.fit = fit;
+
+        int w = width;
+        int h = height;
+        int cornerXY = (int)(BusinessCardCanvas.CORNER_PERCENTAGE * bcDim.getWidth());
+        int m = MARKER_LENGTH;
+
+        lines = new int[] {
+                0, cornerXY, cornerXY, 0, // upper left corner cut line
+                0, 0, 0, m,
+                0, 0, m, 0,
+                0, h, 0, h-m,
+                0, h-1, m, h-1,
+                w, 0, w-m, 0,
+                w-1, 0, w-1, m,
+                w, h-1, w-m, h-1,
+                w-1, h, w-1, h-m
+        };
+
+        double tallestChar = fit.height;
+        int widestChar = (int)fit.maxCharWidth;
+
+        titleCharSpacing = (int)(widestChar * BusinessCardCanvas.CHAR_SPACING);
+        int titleColStart = (int) ( ( ( w - ( w * BusinessCardCanvas.CORNER_PERCENTAGE ) ) / 2) - (( titleLen / 2) * (titleCharSpacing)) + ( w * BusinessCardCanvas.CORNER_PERCENTAGE ) );
+        titleBaseline = (int)fit.ascent;
+
+        // the dimensions of a punch should be less than most chars and more tall than wide
+        double punchSpaceTotal = bcDim.getHeight() - (3 * tallestChar); // vertical spacing available for all 7 possible punches
+        int punchAdvance = (int)(punchSpaceTotal / PUNCH_ROWS); // row increment between punches
+        double exactPunchWidth = titleCharSpacing * 0.25; // keep double to reduce loss of precision in computing punchX below
+        punchWidth = (int)exactPunchWidth;
+        punchHeight = (int)(tallestChar * 0.75);
+
+        columnX = new int[titleLen];
+        punchX = new int[titleLen];
+
+        for (int i = 0; i < titleLen; i++) {
+            columnX[i] = titleColStart + i * titleCharSpacing;
+            punchX[i] = columnX[i] + (int)(fit.maxCharWidth / 2 - exactPunchWidth / 2);
+        }
+
+        punchY = new int[PUNCH_ROWS];
+        int row = (int)(tallestChar * 1.5); // start the first punch lower than the top text line by 1.5 times
+
+        for (int bit = 0; bit < PUNCH_ROWS; bit++) {
+            punchY[bit] = row;
+            row += punchAdvance;
+        }
+
+        // center the cell on the ink of the char, so any overhang of a glyph stays within its own cell
+        columnInset = (int)((titleCharSpacing - fit.maxCharWidth) / 2);
+        columnHeight = Math.min(height, Math.max(punchY[PUNCH_ROWS - 1] + punchHeight, (int)Math.ceil(tallestChar)));
+
+        bottomX = (w / 2) - ((bottomLen / 2) * widestChar);
+        bottomBaseline = (int)(bcDim.getHeight() - fit.descent);
+
+    }
+
+    /**
+     * @return x of the left edge of the cell of a title column
+     */
+    int columnLeft(int column) {
+
+        return columnX[column] - columnInset;
+
+    }
+
+    /**
+     * @return the fitted font, to draw the text with
+     */
+    Font font() {
+
+        Font f = mFont;
+
+        if (f == null) {
+            f = fit.getFont();
+            mFont = f;
+        }
+
+        return f;
+
+    }
+
+    static final class Key {
+
+        final int titleLen;
+        final int bottomLen;
+        final int width;
+        final int height;
+        final FontRenderContext frc;
+
+        Key(int titleLen, int bottomLen, int width, int height, FontRenderContext frc) {
+
+            this.titleLen = titleLen;
+            this.bottomLen = bottomLen;
+            this.width = width;
+            this.height = height;
+            this.frc = frc;
+
+        }
+
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key)o;
+            return titleLen == other.titleLen && bottomLen == other.bottomLen && width == other.width
+                    && height == other.height && frc.equals(other.frc);
+
+        }
+
+        public int hashCode() {
+
+            // by hand, Objects.hash would box the ints and allocate an array on every lookup
+            int h = titleLen;
+            h = 31 * h + bottomLen;
+            h = 31 * h + width;
+            h = 31 * h + height;
+            return 31 * h + frc.hashCode();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Puts a CardServer under load and reports what the clients saw: requests per second and latency percentiles, followed
+ * by what the server reports about itself on /metrics.
+ *
+ * A number of clients each send one request after the other for the given time, each request for a card with a
+ * different made up title and bottom line, so the server sees a realistic mix of text lengths.  With "-" for the URL a
+ * server is started in this JVM on a free port, which is the quickest way to see what a change does to throughput.
+ * The clients' timers are their own, not in RenderMetrics, so with a server in the same JVM its /metrics is only about
+ * the server.
+ *
+ * Usage: CardLoadGenerator [url|-] [clients] [seconds] [format] [dpi]
+ */
+class CardLoadGenerator {
+
+    private static final int WARMUP_SECONDS = 2; // results of the first couple of seconds are not counted
+    private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789.-_@";
+
+    private final URI mBase;
+    private final String mFormat;
+    private final int mDpi;
+    private final HttpClient mClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private final LongAdder mFailures = new LongAdder();
+
+    private long mRunStart;
+    private long mRunEnd;
+
+    CardLoadGenerator(URI base, String format, int dpi) {
+
+        mBase = base;
+        mFormat = format;
+        mDpi = dpi;
+
+    }
+
+    public static void main( String args[] ) throws Exception {
+
+        System.setProperty("java.awt.headless", "true");
+
+        String url = args.length > 0 ? args[0] : "-";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String format = args.length > 3 ? args[3] : "png";
+        int dpi = args.length > 4 ? Integer.parseInt(args[4]) : Supersampler.SCREEN_DPI;
+
+        CardServer local = null;
+
+        if (url.equals("-")) {
+
+            local = new CardServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            local.start();
+            url = "http://localhost:" + local.getPort();
+
+        }
+
+        try {
+
+            CardLoadGenerator load = new CardLoadGenerator(URI.create(url), format, dpi);
+            load.run(clients, WARMUP_SECONDS, new RenderMetrics.Timer("load.warmup"));
+            load.report(clients, load.run(clients, seconds, new RenderMetrics.Timer("load.request")));
+
+            System.out.println(load.fetch("/metrics"));
+
+        } finally {
+
+            if (local != null) {
+                local.stop();
+            }
+
+        }
+
+    }
+
+    /**
+     * Sends requests from the given number of clients for the given time.
+     * @param latency where the time of each request is recorded
+     * @return the timer, for reporting
+     */
+    RenderMetrics.Timer run(int clients, int seconds, RenderMetrics.Timer latency) throws InterruptedException {
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        mRunStart = System.nanoTime();
+        long end = mRunStart + TimeUnit.SECONDS.toNanos(seconds);
+        mFailures.reset();
+
+        for (int i = 0; i < clients; i++) {
+
+            Random random = new Random(mRunStart + i);
+            pool.execute(() -> client(random, end, latency));
+
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        mRunEnd = System.nanoTime();
+
+        return latency;
+
+    }
+
+    /**
+     * Prints what the clients saw during the last run: the requests that got a card, and how many more failed.
+     */
+    void report(int clients, RenderMetrics.Timer latency) {
+
+        double elapsed = (mRunEnd - mRunStart) / 1e9;
+        long requests = latency.count();
+
+        System.out.printf(Locale.ROOT, "%d clients, %d requests in %.1f s: %.1f req/s, p50 %.2f ms, p99 %.2f ms, %d failed%n",
+                clients, requests, elapsed, requests / elapsed, latency.percentile(0.5) / 1e6,
+                latency.percentile(0.99) / 1e6, mFailures.sum());
+
+    }
+
+    private void client(Random random, long end, RenderMetrics.Timer latency) {
+
+        while (System.nanoTime() < end) {
+
+            String path = "/card?title=" + encode(randomText(random, 4, 32)) + "&bottom=" + encode(randomText(random, 0, 40))
+                    + "&format=" + mFormat + "&dpi=" + mDpi;
+
+            long start = System.nanoTime();
+
+            try {
+
+                HttpResponse<byte[]> response = mClient.send(HttpRequest.newBuilder(mBase.resolve(path)).build(),
+                        HttpResponse.BodyHandlers.ofByteArray());
+
+                // only cards that came back count towards throughput and latency, the rest are only counted as failed
+                if (response.statusCode() == 200) {
+                    latency.stop(start);
+                } else {
+                    mFailures.increment();
+                }
+
+            } catch (IOException e) {
+
+                mFailures.increment();
+
+            } catch (InterruptedException ie) {
+
+                Thread.currentThread().interrupt();
+                return;
+
+            }
+
+        }
+
+    }
+
+    private String fetch(String path) throws IOException, InterruptedException {
+
+        return mClient.send(HttpRequest.newBuilder(mBase.resolve(path)).build(), HttpResponse.BodyHandlers.ofString()).body();
+
+    }
+
+    private static String randomText(Random random, int min, int max) {
+
+        int len = min + random.nextInt(max - min + 1);
+        StringBuilder sb = new StringBuilder(len);
+
+        for (int i = 0; i < len; i++) {
+            sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+
+        return sb.toString();
+
+    }
+
+    private static String encode(String s) {
+
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+
+    }
+
+}
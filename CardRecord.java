@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * One business card worth of input: the title line that gets punched and the optional bottom line.
+ */
+final class CardRecord {
+
+    final String title;
+    final String bottom;
+
+    CardRecord(String title, String bottom) {
+
+        this.title = title;
+        this.bottom = bottom;
+
+    }
+
+    /**
+     * Checks the record against the same rules the editor applies while typing (see BusinessCardUI.keyTyped): the
+     * title can only have 7 bit chars, since those are all that can be punched, and neither line can have control chars.
+     * @return what is wrong with the record, null if nothing is
+     */
+    String problem() {
+
+        for (int i = 0; i < title.length(); i++) {
+
+            char c = title.charAt(i);
+
+            if (c > 127) {
+                return "Only 7 bit characters allowed in the title, found '" + c + "' at " + (i + 1) + ".";
+            }
+
+            if (Character.isISOControl(c)) {
+                return "Control character in the title at " + (i + 1) + ".";
+            }
+
+        }
+
+        for (int i = 0; i < bottom.length(); i++) {
+
+            if (Character.isISOControl(bottom.charAt(i))) {
+                return "Control character in the bottom line at " + (i + 1) + ".";
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Parses a roster line of the form title&lt;TAB&gt;bottom.  A line without a tab is all title.
+     * @param line one line of the roster file
+     * @return the record for that line
+     */
+    static CardRecord parse(String line) {
+
+        int tab = line.indexOf('\t');
+
+        if (tab < 0) {
+            return new CardRecord(line, "");
+        }
+
+        return new CardRecord(line.substring(0, tab), line.substring(tab + 1));
+
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Renders one card to a file, for scripts that want a card now and then.  The format comes from the file extension.
+ * Several files, separated like a class path, get the same card in each of their formats.
+ *
+ * For a single card the time goes into starting the JVM and loading classes rather than into the card, so this does
+ * as little as it can: no render cache, no PunchAtlas, no metrics report, and SVG and PDF cards don't create an AWT font
+ * at all (see TrueTypeMetrics).  Startup gets a lot quicker still with a class data sharing archive, which the appcds
+ * profile of the build makes:
+ *
+ *     mvn -Pappcds package
+ *     java -XX:SharedArchiveFile=target/businesscard.jsa -cp target/businesscard-1.0-SNAPSHOT.jar \
+ *         org.mirly.businesscard.CardRender card.png you@example.com "Your Name"
+ *
+ * or with a GraalVM native image, from the native profile, see META-INF/native-image.  StartupBenchmark in the
+ * benchmarks module compares the ways of starting it.  The native image only does SVG and PDF: PNG and PBM cards are
+ * drawn with AWT, which needs JNI configuration of the JDK's own libraries that the image isn't built with, so it
+ * refuses them up front rather than failing part way.
+ *
+ * Exits with 1 for bad arguments or text the editor wouldn't take, 2 if the file can't be written.
+ *
+ * Usage: CardRender outFile.(png|pbm|svg|pdf)[:outFile...] title [bottom] [dpi]
+ */
+final class CardRender {
+
+    private static final String RASTER_FORMATS = "png|pbm"; // drawn with AWT
+    private static final String USAGE =
+            "Usage: CardRender outFile.(png|pbm|svg|pdf)[" + File.pathSeparator + "outFile...] title [bottom] [dpi]";
+
+    private CardRender() {
+    }
+
+    public static void main( String args[] ) {
+
+        // must be set before any AWT class gets loaded
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        String[] files = args[0].split(File.pathSeparator);
+
+        for (String file : files) {
+
+            if (!format(file).matches("png|pbm|svg|pdf")) {
+                System.err.println("Unknown format " + format(file) + ", the file name must end in .png, .pbm, .svg or .pdf.");
+                System.exit(1);
+            }
+
+            if (format(file).matches(RASTER_FORMATS) && inNativeImage()) {
+                System.err.println("This native build of CardRender can't write " + format(file)
+                        + " files, only svg and pdf.  Run it on a JVM for png and pbm.");
+                System.exit(1);
+            }
+
+        }
+
+        CardRecord record = new CardRecord(args[1], args.length > 2 ? args[2] : "");
+        String problem = record.problem();
+
+        if (problem != null) {
+            System.err.println(problem);
+            System.exit(1);
+        }
+
+        int dpi = BusinessCardBatch.intArg(args, 3, "dpi", Supersampler.SCREEN_DPI, Supersampler.SCREEN_DPI,
+                Supersampler.MAX_DPI, USAGE);
+
+        for (String file : files) {
+
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+
+                BusinessCardBatch.encode(record, format(file), dpi, CardFitting.eachShape(), false, out);
+
+            } catch (IOException | UncheckedIOException e) {
+
+                e.printStackTrace();
+                System.exit(2);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * @return true if running as a GraalVM native image, which sets this property at build time and at run time
+     */
+    private static boolean inNativeImage() {
+
+        return System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+
+    }
+
+    /**
+     * @return the extension of the file name, lower case
+     */
+    private static String format(String file) {
+
+        String name = new File(file).getName();
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+
+    }
+
+}
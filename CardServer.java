@@ -0,0 +1,467 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Renders business cards over HTTP, for intranet tools that want a card without the Swing front end.
+ *
+ *     GET /card?title=...&bottom=...&dpi=600&format=png|svg|pdf
+ *     GET /metrics
+ *
+ * Cards are drawn by the same paintBusinessCard the preview uses.  PNG is 72 DPI unless dpi says otherwise, in which
+ * case it is supersampled, SVG and PDF are vectors and ignore dpi.  The title has to follow the same 7 bit rule as the
+ * editor, anything else is a 400.
+ *
+ * Every request runs on a thread of its own: a virtual thread when the JVM has them, otherwise a thread from a cached
+ * pool.  Since a virtual thread only ever serves one request, thread locals would never be reused, so the 72 DPI image,
+ * its graphics context and the response buffer are kept in a small pool instead and handed to whichever thread is
+ * rendering.  A supersampled card is drawn in tens of MB of images, so those are pooled too, only as many sets as a
+ * quarter of the heap holds, and a request for a card above 72 DPI that finds none free gets a 503 rather than
+ * running the server out of memory.  Rendered cards are kept in the shared RenderCache, so a card asked for again is
+ * not drawn again.  /metrics reports requests per second, latency percentiles and the RenderMetrics of each stage.
+ *
+ * Usage: CardServer [port]
+ *
+ * @see CardLoadGenerator
+ */
+class CardServer {
+
+    static final int DEFAULT_PORT = 8077;
+
+    private static final int BACKLOG = 1024; // connections waiting to be accepted
+    private static final int MAX_TEXT = 256; // chars per line, anything longer fits to an unreadable size anyway
+    private static final int POOLED_BUFFERS = Runtime.getRuntime().availableProcessors() * 2;
+
+    // a supersampled card at the worst dpi is about 50 MB, allow at most a quarter of the heap for them
+    private static final int SUPERSAMPLE_TARGETS = (int)Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().maxMemory() / 4 / maxSupersampleBytes()));
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final long mStarted = System.nanoTime();
+
+    private final RenderMetrics.Timer mRequests = RenderMetrics.timer("http.request");
+    private final LongAdder mErrors = RenderMetrics.counter("http.errors");
+    private final BlockingQueue<RenderBuffers> mBuffers = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+    private final BlockingQueue<RenderTarget[]> mSupersampleTargets = new ArrayBlockingQueue<>(SUPERSAMPLE_TARGETS);
+    private final LongAdder mBusy = RenderMetrics.counter("http.busy");
+    private final RenderCache mCache = RenderCache.shared();
+
+    /**
+     * @param address where to listen, port 0 for any free port
+     * @throws IOException if the socket can not be bound
+     */
+    CardServer(InetSocketAddress address) throws IOException {
+
+        mExecutor = newRequestExecutor();
+
+        // the images are made the first time each is used
+        for (int i = 0; i < SUPERSAMPLE_TARGETS; i++) {
+            mSupersampleTargets.add(new RenderTarget[RenderTarget.SLOTS]);
+        }
+
+        mServer = HttpServer.create(address, BACKLOG);
+        mServer.createContext("/card", this::handleCard);
+        mServer.createContext("/metrics", this::handleMetrics);
+        mServer.setExecutor(mExecutor);
+
+    }
+
+    public static void main( String args[] ) {
+
+        // must be set before any AWT class gets loaded
+        System.setProperty("java.awt.headless", "true");
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        try {
+
+            CardServer server = new CardServer(new InetSocketAddress(port));
+            server.start();
+
+            System.out.println("Serving cards on http://localhost:" + server.getPort() + "/card");
+
+        } catch (IOException ioe) {
+
+            ioe.printStackTrace();
+            System.exit(2);
+
+        }
+
+    }
+
+    void start() {
+
+        mServer.start();
+
+    }
+
+    void stop() {
+
+        mServer.stop(0);
+        mExecutor.shutdown();
+
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    int getPort() {
+
+        return mServer.getAddress().getPort();
+
+    }
+
+    /**
+     * One virtual thread per task when the JVM has them (Java 21 and up), looked up reflectively so this still builds
+     * and runs on older JVMs, which get a cached pool of daemon threads instead.
+     */
+    static ExecutorService newRequestExecutor() {
+
+        try {
+
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+        } catch (ReflectiveOperationException e) {
+
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "card-request");
+                t.setDaemon(true);
+                return t;
+            });
+
+        }
+
+    }
+
+    private void handleCard(HttpExchange exchange) throws IOException {
+
+        long start = System.nanoTime();
+
+        try {
+
+            String method = exchange.getRequestMethod();
+            boolean head = method.equals("HEAD");
+
+            if (!head && !method.equals("GET")) {
+                sendText(exchange, 405, "Only GET and HEAD are supported.");
+                return;
+            }
+
+            Map<String, String> query;
+
+            try {
+                query = parseQuery(exchange.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException iae) {
+                sendText(exchange, 400, "Badly encoded query.");
+                return;
+            }
+
+            CardRecord card = new CardRecord(query.getOrDefault("title", ""), query.getOrDefault("bottom", ""));
+            String format = query.getOrDefault("format", "png");
+            int dpi;
+
+            try {
+                dpi = Integer.parseInt(query.getOrDefault("dpi", String.valueOf(Supersampler.SCREEN_DPI)));
+            } catch (NumberFormatException nfe) {
+                dpi = -1;
+            }
+
+            String problem = card.problem();
+
+            if (problem == null) {
+
+                if (!format.matches("png|svg|pdf")) {
+                    problem = "Unknown format " + format + ", must be png, svg or pdf.";
+                } else if (dpi < Supersampler.SCREEN_DPI || dpi > Supersampler.MAX_DPI) {
+                    problem = "dpi must be a number from " + Supersampler.SCREEN_DPI + " to " + Supersampler.MAX_DPI + ".";
+                } else if (card.title.length() > MAX_TEXT || card.bottom.length() > MAX_TEXT) {
+                    problem = "Title and bottom can be at most " + MAX_TEXT + " chars each.";
+                }
+
+            }
+
+            if (problem != null) {
+                sendText(exchange, 400, problem);
+                return;
+            }
+
+            RenderCache.Key key = RenderCache.key(format, card.title, card.bottom, BusinessCardCanvas.BC_WIDTH,
+                    BusinessCardCanvas.BC_HEIGHT, dpi);
+            byte[] body = mCache.get(key);
+
+            if (body == null) {
+
+                RenderTarget[] targets = null;
+
+                // only as many supersampled cards are drawn at once as there are targets for, the rest are turned away
+                if (format.equals("png") && dpi != Supersampler.SCREEN_DPI
+                        && (targets = mSupersampleTargets.poll()) == null) {
+
+                    mBusy.increment();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendText(exchange, 503, "Too many high resolution cards being drawn, try again shortly.");
+                    return;
+
+                }
+
+                try {
+                    body = render(card, format, dpi, targets);
+                } finally {
+
+                    if (targets != null) {
+                        mSupersampleTargets.offer(targets);
+                    }
+
+                }
+
+                mCache.put(key, body);
+
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", contentType(format));
+            exchange.sendResponseHeaders(200, head ? -1 : body.length);
+
+            if (!head) {
+
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+
+            }
+
+        } catch (IOException e) {
+
+            // the client hung up, nothing more can be sent to it
+            mErrors.increment();
+
+        } catch (RuntimeException e) {
+
+            // a card that couldn't be drawn, the client still gets an answer if it hasn't had the headers yet
+            mErrors.increment();
+            e.printStackTrace();
+
+            if (exchange.getResponseCode() == -1) {
+                sendText(exchange, 500, "Could not render the card: " + e);
+            }
+
+        } finally {
+
+            mRequests.stop(start);
+            exchange.close();
+
+        }
+
+    }
+
+    /**
+     * Renders the card, using pooled buffers to draw and encode it.
+     * @param targets what a supersampled card is drawn in, null if it isn't supersampled
+     * @return the encoded card
+     */
+    private byte[] render(CardRecord card, String format, int dpi, RenderTarget[] targets) throws IOException {
+
+        Dimension bcDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+        RenderBuffers buffers = takeBuffers();
+
+        try {
+
+            ByteArrayOutputStream bytes = buffers.bytes;
+            bytes.reset();
+
+            if (format.equals("svg")) {
+
+                CardLayout layout = CardLayout.get(card.title.length(), card.bottom.length(), bcDim, CardLayout.DEFAULT_FRC);
+                Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+                SvgCardWriter.write(layout, card.title, card.bottom, out);
+                out.flush();
+
+            } else if (format.equals("pdf")) {
+
+                CardLayout layout = CardLayout.get(card.title.length(), card.bottom.length(), bcDim, CardLayout.DEFAULT_FRC);
+
+                try (PdfCardWriter pdf = new PdfCardWriter(bytes)) {
+                    pdf.addCard(layout, card.title, card.bottom);
+                }
+
+            } else if (dpi != Supersampler.SCREEN_DPI) {
+
+                CardImageIO.writePng(Supersampler.render(null, card.title, card.bottom, dpi, targets), bytes);
+
+            } else {
+
+                buffers.target.reset();
+                BusinessCardCanvas.paintBusinessCard(buffers.target.graphics, bcDim, card.title, card.bottom, true);
+                CardImageIO.writePng(buffers.target.image, bytes);
+
+            }
+
+            return bytes.toByteArray();
+
+        } finally {
+
+            giveBack(buffers);
+
+        }
+
+    }
+
+    private static String contentType(String format) {
+
+        switch (format) {
+            case "svg":
+                return "image/svg+xml";
+            case "pdf":
+                return "application/pdf";
+            default:
+                return "image/png";
+        }
+
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+
+        try {
+
+            double seconds = (System.nanoTime() - mStarted) / 1e9;
+            long requests = mRequests.count();
+
+            String text = String.format(Locale.ROOT, "uptime %.1f s, %d requests, %.1f req/s, p50 %.2f ms, p99 %.2f ms%n",
+                    seconds, requests, requests / seconds, mRequests.percentile(0.5) / 1e6, mRequests.percentile(0.99) / 1e6)
+                    + RenderMetrics.report();
+
+            sendText(exchange, 200, text);
+
+        } finally {
+
+            exchange.close();
+
+        }
+
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+
+        byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+
+    }
+
+    /**
+     * @param rawQuery the still encoded query string, may be null
+     * @return the decoded parameters, the last one wins if a name is repeated
+     */
+    static Map<String, String> parseQuery(String rawQuery) {
+
+        Map<String, String> params = new HashMap<>();
+
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+
+        }
+
+        return params;
+
+    }
+
+    /**
+     * @return the most a set of supersample targets can hold, the supersampled image and the card, at any allowed dpi
+     */
+    private static long maxSupersampleBytes() {
+
+        long most = 0;
+
+        for (int dpi = Supersampler.SCREEN_DPI + 1; dpi <= Supersampler.MAX_DPI; dpi++) {
+
+            long card = (long)(BusinessCardCanvas.BC_WIDTH * dpi / Supersampler.SCREEN_DPI)
+                    * (BusinessCardCanvas.BC_HEIGHT * dpi / Supersampler.SCREEN_DPI);
+            int factor = Supersampler.factorFor(dpi);
+            most = Math.max(most, card * factor * factor + card);
+
+        }
+
+        return most;
+
+    }
+
+    private RenderBuffers takeBuffers() {
+
+        RenderBuffers buffers = mBuffers.poll();
+        return buffers != null ? buffers : new RenderBuffers();
+
+    }
+
+    private void giveBack(RenderBuffers buffers) {
+
+        // if the pool is full this many requests are in flight at once, the extra buffers are left for the GC
+        mBuffers.offer(buffers);
+
+    }
+
+    /**
+     * What rendering a card needs, reused from one request to the next.  The response buffer keeps the capacity of the
+     * biggest response it held, so after the first few requests it stops growing.
+     */
+    private static final class RenderBuffers {
+
+        final RenderTarget target = new RenderTarget(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT,
+                BufferedImage.TYPE_BYTE_GRAY);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Keeps an output directory of cards up to date with a roster as the roster is edited.  Renders the whole roster the
+ * first time, like BusinessCardBatch, and then watches the roster with a WatchService.  Each time it is saved the
+ * roster is read again, and only the cards that were added or changed are rendered.  Cards past the end of a roster
+ * that got shorter are deleted.
+ *
+ * Whether a card changed is told by its RenderCache key, a digest of its text, the format, resolution and font, which
+ * for every card is kept in a DigestStore in the output directory.  So the watcher can be stopped and started again,
+ * and only what changed in between is rendered, and changing the resolution or the font renders everything again.
+ *
+ * The fitting is worked out again for each update, from businesscard.fit as the batch does.  The roster is read whole
+ * first, once, so a shared size and the cards drawn at it come from the same save.  With a shared size the key has the
+ * size in it, so an edit that changes the longest card changes the key of every card, and they are all rendered again.
+ *
+ * Cards are named by their number in the roster, as the batch names them, so a row inserted or deleted in the middle
+ * changes every card after it.  Those are mostly copied out of the RenderCache rather than drawn again, but they are
+ * still written.  Edits in place and rows added at the end only write the cards they touch.
+ *
+ * PDF (one file for the whole roster) and printing can't be done a card at a time, use the batch for those.
+ *
+ * Usage: CardWatcher roster outDir [png|pbm|svg] [threads] [dpi]
+ */
+final class CardWatcher {
+
+    private static final long SETTLE_MS = 50; // saving can take a few writes, wait for the roster to be quiet this long
+
+    private final Path mRoster;
+    private final File mOutDir;
+    private final String mFormat;
+    private final int mThreads;
+    private final int mDpi;
+    private final DigestStore mDigests;
+
+    CardWatcher(Path roster, File outDir, String format, int threads, int dpi) throws IOException {
+
+        mRoster = roster;
+        mOutDir = outDir;
+        mFormat = format;
+        mThreads = threads;
+        mDpi = dpi;
+        mDigests = DigestStore.open(new File(outDir, "card-" + format + ".digests").toPath());
+
+    }
+
+    public static void main( String args[] ) {
+
+        // must be set before any AWT class gets loaded
+        System.setProperty("java.awt.headless", "true");
+
+        String usage = "Usage: CardWatcher roster outDir [png|pbm|svg] [threads] [dpi]";
+
+        if (args.length < 2) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        String format = args.length > 2 ? args[2] : "png";
+        int threads = BusinessCardBatch.intArg(args, 3, "threads", Runtime.getRuntime().availableProcessors(), 1,
+                BusinessCardBatch.MAX_THREADS, usage);
+        int dpi = BusinessCardBatch.intArg(args, 4, "dpi", Supersampler.SCREEN_DPI, Supersampler.SCREEN_DPI,
+                Supersampler.MAX_DPI, usage);
+
+        if (!format.matches("png|pbm|svg")) {
+            System.err.println("Unknown format " + format + ", must be png, pbm or svg.");
+            System.exit(1);
+        }
+
+        try {
+
+            File outDir = new File(args[1]);
+
+            if (!outDir.isDirectory() && !outDir.mkdirs()) {
+                throw new IOException("Could not create output directory " + outDir);
+            }
+
+            new CardWatcher(new File(args[0]).getAbsoluteFile().toPath(), outDir, format, threads, dpi).watch();
+
+        } catch (IOException e) {
+
+            e.printStackTrace();
+            System.exit(2);
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+            System.exit(2);
+
+        }
+
+    }
+
+    /**
+     * Brings the output up to date, and again every time the roster changes, until interrupted.
+     * @throws IOException if the roster's directory can not be watched
+     */
+    void watch() throws IOException, InterruptedException {
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+
+            // editors often save by writing a new file and renaming it over the old one, so watch the directory
+            mRoster.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+
+            updateAndReport();
+
+            while (true) {
+
+                WatchKey key = watcher.take();
+                boolean changed = isRoster(key);
+
+                // and wait for it to be quiet
+                while ((key = watcher.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isRoster(key);
+                }
+
+                if (changed) {
+                    updateAndReport();
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * @return whether any of the key's events were for the roster, resetting the key
+     */
+    private boolean isRoster(WatchKey key) {
+
+        boolean roster = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+
+            roster |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || mRoster.getFileName().equals(event.context());
+
+        }
+
+        key.reset();
+        return roster;
+
+    }
+
+    /**
+     * Updates, and says what was done.  A roster that can't be read, like one caught half saved, is tried again on
+     * the next change.
+     */
+    private void updateAndReport() throws InterruptedException {
+
+        try {
+
+            System.out.println(update());
+
+        } catch (IOException | UncheckedIOException | ExecutionException e) {
+
+            System.err.println("Could not update from " + mRoster + ", waiting for the next change: " + e);
+
+        }
+
+    }
+
+    /**
+     * Reads the roster, works out the fitting for it and renders the cards whose key isn't the one they were last
+     * rendered with, then deletes the cards past the end of the roster.  The keys are only stored once all of that is
+     * done, so if it fails part way the next update does it again.
+     * @return what was done, for the log
+     * @throws IOException if the roster can not be read or the keys stored
+     * @throws ExecutionException if a card could not be written
+     */
+    String update() throws IOException, InterruptedException, ExecutionException {
+
+        long start = System.nanoTime();
+        Map<Long, RenderCache.Key> rendered = new ConcurrentHashMap<>();
+        File rejectedFile = new File(mOutDir, BusinessCardBatch.REJECTED_FILE);
+
+        Files.deleteIfExists(rejectedFile.toPath()); // only there if this roster has rejects
+        RosterReader roster = new RosterReader(mRoster.toString(), rejectedFile);
+        List<CardRecord> cards = roster.readAll();
+        long count = cards.size();
+
+        BusinessCardBatch batch = new BusinessCardBatch(mOutDir, mFormat, mDpi, CardFitting.forCards(cards));
+        ExecutorService pool = Executors.newFixedThreadPool(mThreads);
+
+        try {
+
+            List<Future<?>> writes = new ArrayList<>();
+
+            for (int i = 0; i < cards.size(); i++) {
+
+                long number = i + 1;
+                CardRecord record = cards.get(i);
+                RenderCache.Key key = batch.cardKey(record);
+
+                if (!mDigests.lookup(number, key)) {
+
+                    writes.add(pool.submit(() -> {
+                        batch.writeCard(batch.cardFile(number), record, key);
+                        rendered.put(number, key);
+                    }));
+
+                }
+
+            }
+
+            for (Future<?> write : writes) {
+                write.get();
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+        long before = mDigests.count();
+
+        for (long number = count + 1; number <= before; number++) {
+            Files.deleteIfExists(batch.cardFile(number).toPath());
+        }
+
+        mDigests.update(rendered, count);
+
+        long added = rendered.keySet().stream().filter(number -> number > before).count();
+
+        return String.format("%s: %d cards, %d added, %d changed, %d removed, %d rejected in %.1f ms", mRoster.getFileName(),
+                count, added, rendered.size() - added, Math.max(0, before - count), roster.getRejected(),
+                (System.nanoTime() - start) / 1e6);
+
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * The RenderCache key of every card in an output directory, by card number, kept in a file so that a CardWatcher that
+ * is started again knows what is already there.  A key is a digest of the card text and everything it was rendered
+ * with, so a record whose key is unchanged doesn't have to be rendered again.
+ *
+ * The file is a header (magic and card count) followed by the keys, one fixed size slot per card, so an update only
+ * writes the slots that changed and the header.  The header goes last, so if the process dies part way the worst that
+ * happens is some cards are rendered again.  The keys are also held in memory, in one array, which for a 100k card
+ * roster is about 3 MB.
+ *
+ * lookup can be called from many threads at once, but not while update runs.
+ */
+final class DigestStore {
+
+    private static final int MAGIC = 0x42434431; // "BCD1"
+    private static final int HEADER = 4 + 4 + 8; // magic, key length, count
+    private static final int SLOT = RenderCache.Key.LENGTH;
+
+    private final FileChannel mChannel;
+
+    private byte[] mKeys; // card n is at (n - 1) * SLOT
+    private long mCount;
+
+    private DigestStore(FileChannel channel, byte[] keys, long count) {
+
+        mChannel = channel;
+        mKeys = keys;
+        mCount = count;
+
+    }
+
+    /**
+     * Opens the store, creating it if there isn't one.  A file that isn't a store, or was written with another key
+     * length, is started over as empty.
+     * @param file where the keys are kept
+     * @return the store
+     * @throws IOException if the file can not be read or created
+     */
+    static DigestStore open(Path file) throws IOException {
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read it all
+        }
+
+        header.flip();
+        long count = 0;
+
+        if (header.remaining() == HEADER && header.getInt() == MAGIC && header.getInt() == SLOT) {
+            count = Math.min(header.getLong(), (channel.size() - HEADER) / SLOT);
+        }
+
+        byte[] keys = new byte[(int)Math.max(count * SLOT, 1024 * SLOT)];
+        ByteBuffer slots = ByteBuffer.wrap(keys, 0, (int)(count * SLOT));
+
+        while (slots.hasRemaining() && channel.read(slots, HEADER + slots.position()) > 0) {
+            // read it all
+        }
+
+        return new DigestStore(channel, keys, count);
+
+    }
+
+    /**
+     * @return how many cards there are
+     */
+    long count() {
+
+        return mCount;
+
+    }
+
+    /**
+     * @param number card number, from 1
+     * @param key what the card would be rendered with now
+     * @return whether the card was last rendered with that key
+     */
+    boolean lookup(long number, RenderCache.Key key) {
+
+        if (number > mCount) {
+            return false;
+        }
+
+        int offset = (int)((number - 1) * SLOT);
+        return key.equals(RenderCache.Key.readFrom(ByteBuffer.wrap(mKeys, offset, SLOT)));
+
+    }
+
+    /**
+     * Stores the keys of the cards that were rendered and the new number of cards, cards past the end are forgotten.
+     * @param changed keys by card number
+     * @param count how many cards there are now
+     * @throws IOException if the file can not be written
+     */
+    void update(Map<Long, RenderCache.Key> changed, long count) throws IOException {
+
+        if (count * SLOT > mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, (int)Math.max(count * SLOT, mKeys.length * 2L));
+        }
+
+        if (count < mCount) {
+            Arrays.fill(mKeys, (int)(count * SLOT), (int)(mCount * SLOT), (byte)0);
+        }
+
+        for (Map.Entry<Long, RenderCache.Key> entry : changed.entrySet()) {
+
+            int offset = (int)((entry.getKey() - 1) * SLOT);
+            entry.getValue().writeTo(ByteBuffer.wrap(mKeys, offset, SLOT));
+            write(ByteBuffer.wrap(mKeys, offset, SLOT), HEADER + offset);
+
+        }
+
+        mCount = count;
+        mChannel.truncate(HEADER + count * SLOT);
+        write(ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(SLOT).putLong(count).flip(), 0);
+
+    }
+
+    private void write(ByteBuffer data, long position) throws IOException {
+
+        while (data.hasRemaining()) {
+            position += mChannel.write(data, position);
+        }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.awt.geom.AffineTransform;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Finds the biggest font size that fits the text on the card given the following criteria:
+ * <ul>The email address (top line) and punches can not start any farther left than the upper left corner cut (CORNER_PERCENTAGE)
+ * <ul>There are 9 rows (the two text lines and 7 punches for each bit in a char)
+ * <ul>There is a spacing added between each char in the top text line as well as the punches (CHAR_SPACING)
+ *
+ * Font sizes are searched in quarter point steps.  Rather than counting up from 1pt, the metrics of a reference size
+ * are scaled to estimate the answer, and then a small bracket around that estimate is binary searched, so a fit costs
+ * a handful of metric lookups.  The metrics of each size are kept per FontRenderContext, since the same few sizes get
+ * asked for over and over again while typing or when rendering a batch.
+ *
+ * The metrics come from the font's tables (see TrueTypeMetrics) rather than from a java.awt.Font, so fitting doesn't
+ * create any fonts, except for a FontRenderContext transform TrueTypeMetrics can't handle, like a rotation.
+ *
+ * Each fit is timed in RenderMetrics and recorded as a CardEvents.Fit event, along with how many sizes it tried.
+ */
+final class FontFitter {
+
+    static final float STEP = 0.25f; // granularity of the point size search
+    private static final int MAX_UNITS = 512 * 4; // largest point size searched, in STEPs
+    private static final int REFERENCE_UNITS = 100 * 4; // size used to estimate the fit from, in STEPs
+    private static final int BRACKET_UNITS = 4; // initial search distance either side of the estimate, in STEPs
+    private static final int ONE_POINT_UNITS = 4; // 1pt in STEPs, what the widest char allowance is worked out from
+
+    private static final ConcurrentMap<FontRenderContext, ConcurrentMap<Integer, Metrics>> sMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * The font metrics needed for laying out a card, at one point size.
+     */
+    static final class Metrics {
+
+        final float ptSize;
+        final double height; // height of the tallest char
+        final double ascent;
+        final double descent;
+        final double maxCharWidth; // width of the widest char
+
+        Metrics(float ptSize, double height, double ascent, double descent, double maxCharWidth) {
+
+            this.ptSize = ptSize;
+            this.height = height;
+            this.ascent = ascent;
+            this.descent = descent;
+            this.maxCharWidth = maxCharWidth;
+
+        }
+
+        Font getFont() {
+
+            return TTF.getFont(ptSize);
+
+        }
+
+    }
+
+    private FontFitter() {
+    }
+
+    /**
+     * Uses the size of the input text and the business card size to find the biggest font possible that will still fit
+     * on the card.
+     *
+     * @param titleLen number of chars in the top line
+     * @param bottomLen number of chars in the bottom line
+     * @param cardDim dimensions of the overall business card
+     * @param frc used to get font metrics
+     * @return metrics of the biggest font that fits
+     */
+    static Metrics fit(int titleLen, int bottomLen, Dimension cardDim, FontRenderContext frc) {
+
+        long start = System.nanoTime();
+        CardEvents.Fit event = null;
+
+        if (CardEvents.enabled()) {
+            event = new CardEvents.Fit();
+            event.begin();
+        }
+
+        int maxNumCols = columns(titleLen, bottomLen);
+
+        double widthAllowed = cardDim.getWidth() * (1 - BusinessCardCanvas.CORNER_PERCENTAGE);
+        double maxRowHeight = cardDim.getHeight() / 9; // need top row, 7 rows for bits, bottom row: total 9 rows
+
+        ConcurrentMap<Integer, Metrics> sizes = sMetrics.computeIfAbsent(frc, k -> new ConcurrentHashMap<>());
+
+        // as many of the widest 1pt char as fit in the width, which the widest char at any size has to be under
+        double maxCharWidthAllowed = widthAllowed / metrics(sizes, ONE_POINT_UNITS, frc).maxCharWidth;
+
+        // metrics scale close to linearly with point size, so estimate from the reference size
+        Metrics ref = metrics(sizes, REFERENCE_UNITS, frc);
+        double heightPerUnit = ref.height / REFERENCE_UNITS;
+        double widthPerUnit = ref.maxCharWidth / REFERENCE_UNITS;
+
+        double estimate = Math.min(maxRowHeight / heightPerUnit, maxCharWidthAllowed / widthPerUnit);
+
+        if (maxNumCols > 0) {
+            estimate = Math.min(estimate, widthAllowed / (maxNumCols * widthPerUnit));
+        }
+
+        // find a bracket where lo fits and hi does not, then binary search it
+        int lo = Math.max(1, Math.min(MAX_UNITS, (int)estimate) - BRACKET_UNITS);
+        int hi = Math.min(MAX_UNITS + 1, lo + 2 * BRACKET_UNITS);
+
+        int steps = 0; // sizes tried, for the instrumentation
+
+        while (lo > 1) {
+
+            steps++;
+
+            if (fits(metrics(sizes, lo, frc), maxNumCols, widthAllowed, maxCharWidthAllowed, maxRowHeight)) {
+                break;
+            }
+
+            hi = lo;
+            lo = Math.max(1, lo - 2 * BRACKET_UNITS);
+
+        }
+
+        while (hi <= MAX_UNITS) {
+
+            steps++;
+
+            if (!fits(metrics(sizes, hi, frc), maxNumCols, widthAllowed, maxCharWidthAllowed, maxRowHeight)) {
+                break;
+            }
+
+            lo = hi;
+            hi = Math.min(MAX_UNITS + 1, hi + 2 * BRACKET_UNITS);
+
+        }
+
+        while (hi - lo > 1) {
+
+            int mid = (lo + hi) >>> 1;
+            steps++;
+
+            if (fits(metrics(sizes, mid, frc), maxNumCols, widthAllowed, maxCharWidthAllowed, maxRowHeight)) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+
+        }
+
+        // if even the smallest size doesn't fit, lo is still the smallest size, which is as good as it gets
+        Metrics best = metrics(sizes, lo, frc);
+
+        RenderMetrics.FIT.stop(start);
+        RenderMetrics.FIT_STEPS.add(steps);
+
+        if (event != null && event.shouldCommit()) {
+
+            event.titleLength = titleLen;
+            event.bottomLength = bottomLen;
+            event.width = cardDim.width;
+            event.height = cardDim.height;
+            event.pointSize = best.ptSize;
+            event.searchSteps = steps;
+            event.commit();
+
+        }
+
+        return best;
+
+    }
+
+    /**
+     * @return how many columns of chars the text needs across the card, which with the card size is all a fit depends on
+     */
+    static int columns(int titleLen, int bottomLen) {
+
+        int titleCols = (int)(titleLen * BusinessCardCanvas.CHAR_SPACING);
+
+        // which text line is longer?  The bottom one shouldn't be too much longer than the top, but that's up to the user.
+        return Math.max(titleCols, bottomLen);
+
+    }
+
+    /**
+     * The rules a font has to follow to fit.
+     * <ul>The tallest char has to fit in one of the 9 rows
+     * <ul>The widest char has to be narrower than maxCharWidthAllowed, how many of the widest 1pt char fit to the right
+     * of the corner cut
+     * <ul>The widest char times the number of columns has to fit to the right of the corner cut
+     */
+    private static boolean fits(Metrics m, int maxNumCols, double widthAllowed, double maxCharWidthAllowed,
+                                double maxRowHeight) {
+
+        return m.height < maxRowHeight
+                && m.maxCharWidth < maxCharWidthAllowed
+                && m.maxCharWidth * maxNumCols < widthAllowed;
+
+    }
+
+    private static Metrics metrics(ConcurrentMap<Integer, Metrics> sizes, int units, FontRenderContext frc) {
+
+        Metrics m = sizes.get(units);
+
+        if (m == null) {
+
+            float ptSize = units * STEP;
+            AffineTransform tx = frc.getTransform();
+
+            if (TrueTypeMetrics.supports(tx)) {
+
+                TrueTypeMetrics ttm = TTF.getMetrics();
+                float[] lm = ttm.lineMetrics(ptSize); // ascent, descent, leading
+
+                m = new Metrics(ptSize, lm[0] + lm[1] + lm[2], lm[0], lm[1], ttm.maxCharWidth(ptSize, tx));
+
+            } else {
+
+                Font f = TTF.getFont(ptSize);
+
+                // FreeMono is a single physical font, so the line metrics are the same whatever the text
+                LineMetrics lm = f.getLineMetrics("", frc);
+                m = new Metrics(ptSize, lm.getHeight(), lm.getAscent(), lm.getDescent(), f.getMaxCharBounds(frc).getWidth());
+
+            }
+
+            Metrics prev = sizes.putIfAbsent(units, m);
+
+            if (prev != null) {
+                m = prev;
+            }
+
+        }
+
+        return m;
+
+    }
+
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * The on disk tier of the RenderCache.  Entries are appended to memory mapped segment files in a directory and found
+ * again through an index kept in memory, which is rebuilt by scanning the segments when the store is opened, so the
+ * cache survives restarts.
+ *
+ * Each record is a header (magic, key digest, length, CRC of the data) followed by the data.  The magic goes in last,
+ * so a record that was only partly written when the process died is not there as far as the next scan is concerned,
+ * and neither is anything with a bad CRC.  When a segment fills up a new one is started, and once there are more than
+ * MAX_SEGMENTS the oldest one is deleted along with its index entries, so eviction is first in first out a segment at a
+ * time.
+ *
+ * Only one process can have a store open, the others get null from open() and make do with the memory tier.
+ *
+ * Whatever is in the segments is handed out as rendered cards, so nobody else may be able to write to the directory.
+ * It is created readable and writable by its owner only, and a directory that is there already has to belong to the
+ * user running this and not be writable by anyone else, otherwise it isn't opened.
+ */
+final class MappedCacheStore {
+
+    private static final int MAGIC = 0x42434331; // "BCC1"
+    private static final int HEADER = 4 + RenderCache.Key.LENGTH + 4 + 4; // magic, digest, length, CRC
+    private static final int MAX_SEGMENTS = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final Path mDir;
+    private final int mSegmentSize;
+    private final FileLock mLock; // held for as long as the process runs
+
+    private final Deque<Segment> mSegments = new ArrayDeque<>(); // oldest first, the last one is appended to
+    private final Map<RenderCache.Key, Location> mIndex = new HashMap<>();
+
+    private MappedCacheStore(Path dir, int segmentSize, FileLock lock) {
+
+        mDir = dir;
+        mSegmentSize = segmentSize;
+        mLock = lock;
+
+    }
+
+    /**
+     * Opens the store in the directory, creating the directory if need be, and indexes what is already there.
+     * @param dir where the segment files go
+     * @param maxBytes roughly how much disk to use at most
+     * @return the store, null if another process has it open
+     * @throws IOException if the directory or segments can not be read or created, or someone else could write to it
+     */
+    static MappedCacheStore open(Path dir, long maxBytes) throws IOException {
+
+        createPrivate(dir);
+
+        FileChannel lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // this JVM has it open already
+        }
+
+        if (lock == null) {
+            lockChannel.close();
+            return null;
+        }
+
+        int segmentSize = (int)Math.max(1 << 20, Math.min(Integer.MAX_VALUE, maxBytes / MAX_SEGMENTS));
+        MappedCacheStore store = new MappedCacheStore(dir, segmentSize, lock);
+
+        try {
+
+            store.scan();
+
+        } catch (IOException | RuntimeException e) {
+
+            // closing the channel releases the lock, so the next process to try gets the directory
+            lockChannel.close();
+            throw e;
+
+        }
+
+        return store;
+
+    }
+
+    /**
+     * Creates the directory owner only if it isn't there, and checks that nobody else can write to it if it is.  On
+     * file systems without POSIX permissions the directory is only created.
+     */
+    private static void createPrivate(Path dir) throws IOException {
+
+        PosixFileAttributeView posix = Files.getFileAttributeView(dir.getParent() != null ? dir.getParent() : dir,
+                PosixFileAttributeView.class);
+
+        if (posix == null) {
+            Files.createDirectories(dir);
+            return;
+        }
+
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+
+            if (dir.getParent() != null) {
+                Files.createDirectories(dir.getParent());
+            }
+
+            Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+
+        }
+
+        // not following links, a link planted in place of the directory is not ours either
+        PosixFileAttributes attrs = Files.readAttributes(dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        UserPrincipal me = dir.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+
+        if (!attrs.isDirectory() || !attrs.owner().equals(me)) {
+            throw new IOException(dir + " is not a directory belonging to " + me.getName());
+        }
+
+        if (attrs.permissions().contains(PosixFilePermission.GROUP_WRITE)
+                || attrs.permissions().contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException(dir + " can be written by other users");
+        }
+
+    }
+
+    /**
+     * @return a copy of the data stored under the key, null if there is none
+     */
+    synchronized byte[] get(RenderCache.Key key) {
+
+        Location loc = mIndex.get(key);
+
+        if (loc == null) {
+            return null;
+        }
+
+        byte[] data = new byte[loc.length];
+        ByteBuffer buffer = loc.segment.buffer.duplicate();
+        buffer.position(loc.offset);
+        buffer.get(data);
+        return data;
+
+    }
+
+    /**
+     * Appends the data under the key, unless it is already there or too big to ever fit in a segment.
+     * @throws IOException if a new segment is needed and can not be created
+     */
+    synchronized void put(RenderCache.Key key, byte[] data) throws IOException {
+
+        if (mIndex.containsKey(key) || HEADER + data.length > mSegmentSize) {
+            return;
+        }
+
+        Segment segment = mSegments.peekLast();
+
+        if (segment == null || segment.position + HEADER + data.length > mSegmentSize) {
+            segment = newSegment(segment == null ? 0 : segment.number + 1);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int start = segment.position;
+
+        buffer.position(start + 4);
+        key.writeTo(buffer);
+        buffer.putInt(data.length);
+        buffer.putInt((int)crc.getValue());
+        buffer.put(data);
+        buffer.putInt(start, MAGIC); // last, the record only counts once this is in
+
+        segment.position = start + HEADER + data.length;
+        mIndex.put(key, new Location(segment, start + HEADER, data.length));
+
+    }
+
+    /**
+     * @return how many entries the store has
+     */
+    synchronized int size() {
+
+        return mIndex.size();
+
+    }
+
+    /**
+     * Maps and indexes every segment in the directory, oldest first so newer copies of a key win.
+     */
+    private void scan() throws IOException {
+
+        List<Long> numbers = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(mDir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+
+            for (Path file : files) {
+
+                String name = file.getFileName().toString();
+
+                try {
+                    numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+
+            }
+
+        }
+
+        Collections.sort(numbers);
+
+        for (long number : numbers) {
+
+            Segment segment = map(number);
+            mSegments.addLast(segment);
+            index(segment);
+
+        }
+
+        while (mSegments.size() > MAX_SEGMENTS) {
+            evictOldest();
+        }
+
+    }
+
+    /**
+     * Reads records from the start of the segment until the first one that is not whole.
+     */
+    private void index(Segment segment) {
+
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int pos = 0;
+        CRC32 crc = new CRC32();
+
+        while (pos + HEADER <= buffer.capacity() && buffer.getInt(pos) == MAGIC) {
+
+            buffer.position(pos + 4);
+            RenderCache.Key key = RenderCache.Key.readFrom(buffer);
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+
+            if (length < 0 || pos + HEADER + length > buffer.capacity()) {
+                break;
+            }
+
+            ByteBuffer data = buffer.slice();
+            data.limit(length);
+            crc.reset();
+            crc.update(data);
+
+            if ((int)crc.getValue() != expected) {
+                break;
+            }
+
+            mIndex.put(key, new Location(segment, pos + HEADER, length));
+            pos += HEADER + length;
+
+        }
+
+        segment.position = pos;
+
+    }
+
+    private Segment newSegment(long number) throws IOException {
+
+        Segment segment = map(number);
+        mSegments.addLast(segment);
+
+        while (mSegments.size() > MAX_SEGMENTS) {
+            evictOldest();
+        }
+
+        return segment;
+
+    }
+
+    private Segment map(long number) throws IOException {
+
+        Path path = mDir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            // the mapping stays valid after the channel is closed, and the file is sparse until written
+            return new Segment(number, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize));
+
+        }
+
+    }
+
+    private void evictOldest() {
+
+        Segment oldest = mSegments.removeFirst();
+
+        for (Iterator<Location> it = mIndex.values().iterator(); it.hasNext(); ) {
+
+            if (it.next().segment == oldest) {
+                it.remove();
+            }
+
+        }
+
+        // the mapping goes away when the buffer is collected.  Where a mapped file can't be deleted (Windows) it is left
+        // for the next process to scan and evict.
+        try {
+            Files.deleteIfExists(oldest.path);
+        } catch (IOException e) {
+            // still indexed out, so it is as good as gone
+        }
+
+    }
+
+    private static final class Segment {
+
+        final long number;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int position; // where the next record goes
+
+        Segment(long number, Path path, MappedByteBuffer buffer) {
+
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+
+        }
+
+    }
+
+    private static final class Location {
+
+        final Segment segment;
+        final int offset; // of the data, past the header
+        final int length;
+
+        Location(Segment segment, int offset, int length) {
+
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Writes business cards to a PDF, one card per page, each page the size of the card.  The pages have the same lines,
+ * punches and text paintBusinessCard draws, as vectors, with FreeMono embedded so the text matches the screen.
+ *
+ * Pages are streamed out as they are added, only the page being written and the file offset of each PDF object are
+ * kept in memory, so a PDF with thousands of cards takes no more heap than one with a single card.
+ *
+ * Text is encoded as WinAnsi, so bottom text chars outside of Latin-1 come out as question marks.
+ */
+final class PdfCardWriter implements Closeable {
+
+    // fixed object numbers, pages start after these, two objects (page and content) per page
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int FONT = 3;
+    private static final int FONT_DESCRIPTOR = 4;
+    private static final int FONT_FILE = 5;
+    private static final int FIRST_PAGE = 6;
+
+    private static final int FIRST_CHAR = 32;
+    private static final int LAST_CHAR = 255;
+
+    private final CountingOutputStream mOut;
+    private final ByteArrayOutputStream mPage = new ByteArrayOutputStream(4096); // content of the page being written
+    private long[] mOffsets = new long[64]; // file offset of each object, by object number
+    private int mPageCount;
+    private boolean mClosed;
+
+    /**
+     * Starts a PDF, writing the header and embedded font right away.
+     * @param out where the PDF goes, closed when this is closed
+     * @throws IOException if the stream fails
+     */
+    PdfCardWriter(OutputStream out) throws IOException {
+
+        mOut = new CountingOutputStream(out);
+
+        // the binary comment line tells anyone looking that this file is not plain text
+        write("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+        writeFont();
+
+    }
+
+    /**
+     * Adds a page for one card.
+     * @param layout where everything goes
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     * @throws IOException if the stream fails
+     */
+    void addCard(CardLayout layout, String titleText, String bottomText) throws IOException {
+
+        mPage.reset();
+
+        // flip to y going down like Java 2D, so the layout can be replayed as is
+        page("1 0 0 -1 0 " + layout.height + " cm\n");
+        page("1 g 0 0 " + layout.width + " " + layout.height + " re f\n0 g 0 G 1 w 2 J\n");
+
+        // lines through the pixel centers with square ends, just like Graphics.drawLine fills pixels
+        int[] lines = layout.lines;
+
+        for (int i = 0; i < lines.length; i += 4) {
+            page((lines[i] + 0.5) + " " + (lines[i+1] + 0.5) + " m " + (lines[i+2] + 0.5) + " " + (lines[i+3] + 0.5) + " l S\n");
+        }
+
+        for (int col = 0; col < layout.titleLen; col++) {
+
+            char c = titleText.charAt(col);
+
+            for (int bit = 0; bit < CardLayout.PUNCH_ROWS; bit++) {
+
+                if ((c & (1 << bit)) != 0) {
+                    page(layout.punchX[col] + " " + layout.punchY[bit] + " " + layout.punchWidth + " " + layout.punchHeight + " re f\n");
+                }
+
+            }
+
+        }
+
+        // text space has y going up, so flip each text origin back
+        page("BT /F1 " + layout.fit.ptSize + " Tf\n");
+
+        for (int col = 0; col < layout.titleLen; col++) {
+            page("1 0 0 -1 " + layout.columnX[col] + " " + layout.titleBaseline + " Tm ");
+            text(titleText, col, col + 1);
+        }
+
+        if (layout.bottomLen > 0) {
+            page("1 0 0 -1 " + layout.bottomX + " " + layout.bottomBaseline + " Tm ");
+            text(bottomText, 0, bottomText.length());
+        }
+
+        page("ET\n");
+
+        int pageObj = FIRST_PAGE + 2 * mPageCount;
+
+        beginObject(pageObj);
+        write("<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox [0 0 " + layout.width + " " + layout.height + "]"
+                + " /Resources << /Font << /F1 " + FONT + " 0 R >> >> /Contents " + (pageObj + 1) + " 0 R >>\nendobj\n");
+
+        beginObject(pageObj + 1);
+        write("<< /Length " + mPage.size() + " >>\nstream\n");
+        mPage.writeTo(mOut);
+        write("\nendstream\nendobj\n");
+
+        mPageCount++;
+
+    }
+
+    /**
+     * @return number of cards added so far
+     */
+    int getPageCount() {
+
+        return mPageCount;
+
+    }
+
+    /**
+     * Finishes the PDF (page tree, catalog, cross reference table) and closes the stream.
+     */
+    public void close() throws IOException {
+
+        try {
+            finish();
+        } finally {
+            mOut.close();
+        }
+
+    }
+
+    /**
+     * Finishes the PDF (page tree, catalog, cross reference table) without closing the stream, for when it belongs to
+     * someone else.  Nothing can be added after this.
+     */
+    void finish() throws IOException {
+
+        if (mClosed) {
+            return;
+        }
+
+        mClosed = true;
+        beginObject(PAGES);
+        write("<< /Type /Pages /Count " + mPageCount + " /Kids [");
+
+        for (int i = 0; i < mPageCount; i++) {
+            write((i % 10 == 0 ? "\n" : " ") + (FIRST_PAGE + 2 * i) + " 0 R");
+        }
+
+        write("\n] >>\nendobj\n");
+
+        beginObject(CATALOG);
+        write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+
+        int objects = FIRST_PAGE + 2 * mPageCount;
+        long xref = mOut.count;
+
+        write("xref\n0 " + objects + "\n0000000000 65535 f \n");
+
+        for (int i = 1; i < objects; i++) {
+            write(String.format(Locale.ROOT, "%010d 00000 n \n", mOffsets[i]));
+        }
+
+        write("trailer\n<< /Size " + objects + " /Root " + CATALOG + " 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        mOut.flush();
+
+    }
+
+    /**
+     * Embeds FreeMono as a TrueType font.  FreeMono is monospaced, so every char has the same width.
+     */
+    private void writeFont() throws IOException {
+
+        // metrics at 1000pt are in the 1/1000 em units PDF font dictionaries use, straight from the font tables so
+        // writing a PDF doesn't need an AWT font.  The bounding box is the one Font.getMaxCharBounds gives.
+        TrueTypeMetrics metrics = TTF.getMetrics();
+        float[] lm = metrics.lineMetrics(1000f); // ascent, descent, leading
+        int advance = (int)Math.round(metrics.maxCharWidth(1000f, null));
+        Rectangle2D bbox = new Rectangle2D.Float(0, -lm[0], advance, lm[0] + lm[1] + lm[2]);
+
+        beginObject(FONT);
+        write("<< /Type /Font /Subtype /TrueType /BaseFont /FreeMono /Encoding /WinAnsiEncoding /FirstChar " + FIRST_CHAR
+                + " /LastChar " + LAST_CHAR + " /FontDescriptor " + FONT_DESCRIPTOR + " 0 R /Widths [");
+
+        for (int c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+            write(((c - FIRST_CHAR) % 16 == 0 ? "\n" : " ") + advance);
+        }
+
+        write("\n] >>\nendobj\n");
+
+        beginObject(FONT_DESCRIPTOR);
+        write("<< /Type /FontDescriptor /FontName /FreeMono /Flags 33 /FontBBox [" + (int)bbox.getMinX() + " "
+                + (int)-bbox.getMaxY() + " " + (int)bbox.getMaxX() + " " + (int)-bbox.getMinY() + "] /ItalicAngle 0"
+                + " /Ascent " + (int)lm[0] + " /Descent " + (int)-lm[1] + " /CapHeight "
+                + (int)lm[0] + " /StemV 80 /FontFile2 " + FONT_FILE + " 0 R >>\nendobj\n");
+
+        ByteBuffer data = TTF.getFontData();
+        byte[] buf = new byte[8192];
+
+        beginObject(FONT_FILE);
+        write("<< /Length " + data.remaining() + " /Length1 " + data.remaining() + " >>\nstream\n");
+
+        while (data.hasRemaining()) {
+            int n = Math.min(buf.length, data.remaining());
+            data.get(buf, 0, n);
+            mOut.write(buf, 0, n);
+        }
+
+        write("\nendstream\nendobj\n");
+
+    }
+
+    private void beginObject(int obj) throws IOException {
+
+        if (obj >= mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, Math.max(obj + 1, mOffsets.length * 2));
+        }
+
+        mOffsets[obj] = mOut.count;
+        write(obj + " 0 obj\n");
+
+    }
+
+    private void write(String s) throws IOException {
+
+        mOut.write(s.getBytes(StandardCharsets.ISO_8859_1));
+
+    }
+
+    private void page(String s) throws IOException {
+
+        mPage.write(s.getBytes(StandardCharsets.ISO_8859_1));
+
+    }
+
+    /**
+     * Adds a show text operator to the page, escaping what needs it and replacing anything WinAnsi can't show.
+     */
+    private void text(String s, int from, int to) throws IOException {
+
+        mPage.write('(');
+
+        for (int i = from; i < to; i++) {
+
+            char c = s.charAt(i);
+
+            if (c == '(' || c == ')' || c == '\\') {
+                mPage.write('\\');
+            }
+
+            boolean printable = (c >= FIRST_CHAR && c < 127) || (c >= 160 && c <= LAST_CHAR);
+            mPage.write(printable ? c : '?');
+
+        }
+
+        page(") Tj\n");
+
+    }
+
+    /**
+     * Keeps track of where in the file we are, for the cross reference table.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+
+            super(out);
+
+        }
+
+        public void write(int b) throws IOException {
+
+            out.write(b);
+            count++;
+
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            out.write(b, off, len);
+            count += len;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterAbortException;
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Runs print jobs one after the other on a thread of their own, so spooling never holds up the Swing event thread and
+ * the editor stays usable while a job prints.  Jobs that come in while one is printing wait their turn.
+ *
+ * Each job gets a row in the queue panel showing its progress (pages done out of pages in the job), how long it has
+ * been going and a button to cancel it.  All of the Swing work is done on the event thread, the print thread only
+ * posts updates.
+ *
+ * Cancelling asks the job to stop and also has every page asked for after that come back as NO_SUCH_PAGE, so a job
+ * cancelled just as it starts, before the job can take a cancel, still stops.  A job is only shown as cancelled if it
+ * did stop before its last page.
+ */
+class PrintQueue {
+
+    private static final int TICK_MS = 250; // how often elapsed times are updated
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "print-queue");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final List<Entry> mActive = new ArrayList<>(); // only touched on the event thread
+    private final JPanel mJobsPanel = new JPanel();
+    private final Timer mTimer = new Timer(TICK_MS, e -> tick());
+    private int mJobCount;
+
+    /**
+     * @return the panel listing the jobs in the queue
+     */
+    JComponent getPanel() {
+
+        mJobsPanel.setLayout(new BoxLayout(mJobsPanel, BoxLayout.Y_AXIS));
+
+        JPanel top = new JPanel(new BorderLayout()); // keeps the rows at the top instead of spread out
+        top.add(mJobsPanel, BorderLayout.NORTH);
+
+        JScrollPane scroll = new JScrollPane(top);
+        scroll.setBorder(BorderFactory.createTitledBorder("Print queue"));
+        scroll.setPreferredSize(new Dimension(220, 0));
+
+        return scroll;
+
+    }
+
+    /**
+     * Queues a job the user already OKed the print dialog for.  Must be called on the event thread.
+     * @param job the printer job, as set up by the print dialog
+     * @param bcp what to print
+     * @param name what to call the job in the queue
+     */
+    void submit(PrinterJob job, BusinessCardPrint bcp, String name) {
+
+        Entry entry = new Entry(job, bcp, "Job " + (++mJobCount) + ": " + name);
+
+        mJobsPanel.add(entry.mRow);
+        mJobsPanel.revalidate();
+        mActive.add(entry);
+        mTimer.start();
+
+        mExecutor.submit(entry::run);
+
+    }
+
+    /**
+     * Updates the elapsed time of every job still in the queue.
+     */
+    private void tick() {
+
+        for (Entry entry : mActive) {
+            entry.update();
+        }
+
+        if (mActive.isEmpty()) {
+            mTimer.stop();
+        }
+
+    }
+
+    /**
+     * One job in the queue and its row in the panel.
+     */
+    private final class Entry implements Printable {
+
+        private final PrinterJob mJob;
+        private final BusinessCardPrint mPrint;
+        private final String mName;
+
+        private final JPanel mRow = new JPanel(new BorderLayout());
+        private final JLabel mStatus = new JLabel();
+        private final JProgressBar mProgress = new JProgressBar();
+        private final JButton mCancel = new JButton("Cancel");
+
+        // written by the print thread, read on the event thread
+        private volatile boolean mCancelled;
+        private volatile boolean mStoppedEarly; // pages were left out because of a cancel
+        private volatile long mStart;
+        private volatile int mPage;
+        private volatile int mPages;
+        private volatile String mDone; // how the job ended, null while queued or printing
+
+        Entry(PrinterJob job, BusinessCardPrint bcp, String name) {
+
+            mJob = job;
+            mPrint = bcp;
+            mName = name;
+
+            mJob.setPrintable(this);
+
+            mRow.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
+            mRow.add(mStatus, BorderLayout.NORTH);
+            mRow.add(mProgress, BorderLayout.CENTER);
+            mRow.add(mCancel, BorderLayout.EAST);
+            mCancel.addActionListener(e -> cancel());
+            mRow.setMaximumSize(new Dimension(Integer.MAX_VALUE, mRow.getPreferredSize().height));
+
+            update();
+
+        }
+
+        /**
+         * Prints the job, on the print thread.
+         */
+        void run() {
+
+            if (mCancelled) {
+                finish("cancelled");
+                return;
+            }
+
+            mStart = System.nanoTime();
+
+            try {
+
+                mJob.print();
+                finish(mStoppedEarly ? "cancelled" : "done");
+
+            } catch (PrinterAbortException pae) {
+
+                finish("cancelled");
+
+            } catch (PrinterException pe) {
+
+                pe.printStackTrace();
+                finish("failed: " + pe.getMessage());
+
+            }
+
+        }
+
+        /**
+         * Called by the print system for each page (more than once per page if it prints in bands).
+         */
+        public int print(Graphics g, PageFormat pf, int page) throws PrinterException {
+
+            mPages = mPrint.getPageCount(pf);
+
+            if (mCancelled) {
+
+                // past the last page the job is over anyway, and wasn't cut short
+                if (page < mPages) {
+                    mStoppedEarly = true;
+                }
+
+                return NO_SUCH_PAGE;
+
+            }
+
+            mPage = page;
+
+            return mPrint.print(g, pf, page);
+
+        }
+
+        private void cancel() {
+
+            mCancelled = true;
+            mCancel.setEnabled(false);
+
+            // does nothing to a job that hasn't started, which either never starts or gets no pages from print()
+            mJob.cancel();
+
+        }
+
+        private void finish(String how) {
+
+            SwingUtilities.invokeLater(() -> {
+                mDone = how;
+                mCancel.setEnabled(false);
+                update();
+                mActive.remove(this);
+            });
+
+        }
+
+        /**
+         * Shows the current state of the job in its row.  Event thread only.
+         */
+        void update() {
+
+            long start = mStart;
+            String elapsed = start == 0 ? "" : String.format(", %.1f s", (System.nanoTime() - start) / 1e9);
+
+            if (mDone != null) {
+
+                mStatus.setText(mName + " " + mDone + elapsed);
+                mProgress.setIndeterminate(false);
+
+                if (mDone.equals("done")) {
+                    mProgress.setValue(mProgress.getMaximum());
+                }
+
+            } else if (start == 0) {
+
+                mStatus.setText(mName + " waiting");
+                mProgress.setIndeterminate(true);
+
+            } else {
+
+                int pages = Math.max(1, mPages);
+                mStatus.setText(mName + " page " + Math.min(mPage + 1, pages) + " of " + pages + elapsed);
+                mProgress.setIndeterminate(false);
+                mProgress.setMaximum(pages);
+                mProgress.setValue(mPage);
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Pre-rendered title columns, one tile per 7-bit ASCII code: the char itself with its punches underneath.
+ *
+ * For a given font and column geometry every one of the 128 columns is drawn once into a single strip image, and after
+ * that a card is put together by copying one tile per title char.  This is worth it when rendering many cards of the
+ * same shape, like in a batch run, but not for the on screen preview where the font size changes with every keystroke.
+ *
+ * Tiles are opaque (white with black ink) and are exactly the cell of a column (see CardLayout), so neighboring tiles
+ * never overlap and can be copied without any blending.  That means they must be drawn before anything else that
+ * might land in the same pixels, like the corner markers.
+ */
+final class PunchAtlas {
+
+    private static final int CODES = 128; // one tile for each 7-bit char
+    private static final int MAX_CACHED_ATLASES = 32;
+
+    private static final Map<Key, PunchAtlas> sAtlases = new LinkedHashMap<Key, PunchAtlas>(16, 0.75f, true) {
+
+        protected boolean removeEldestEntry(Map.Entry<Key, PunchAtlas> eldest) {
+            return size() > MAX_CACHED_ATLASES;
+        }
+
+    };
+
+    private final BufferedImage[] mTiles = new BufferedImage[CODES];
+    private final int mTileOffset; // where a tile starts relative to the column start
+
+    /**
+     * Gets the atlas for the font and column geometry of the layout, building it if this is the first time it was
+     * asked for.  Layouts that only differ in text length share an atlas.  The layout remembers its atlas, so after the
+     * first card of a layout this is a field read.
+     */
+    static PunchAtlas get(CardLayout layout) {
+
+        PunchAtlas atlas = layout.atlas;
+
+        if (atlas != null) {
+            return atlas;
+        }
+
+        Key key = new Key(layout);
+
+        synchronized (sAtlases) {
+
+            atlas = sAtlases.get(key);
+
+            if (atlas == null) {
+                atlas = new PunchAtlas(layout);
+                sAtlases.put(key, atlas);
+            }
+
+        }
+
+        layout.atlas = atlas;
+        return atlas;
+
+    }
+
+    private PunchAtlas(CardLayout layout) {
+
+        // a tile is exactly the cell of a column
+        mTileOffset = -layout.columnInset;
+
+        int tileWidth = Math.max(1, layout.titleCharSpacing);
+        int tileHeight = Math.max(1, layout.columnHeight);
+        int punchOffset = layout.titleLen > 0 ? layout.punchX[0] - layout.columnX[0] : 0;
+
+        BufferedImage strip = new BufferedImage(tileWidth * CODES, tileHeight, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = strip.createGraphics();
+        RenderProfile.BATCH.applyTo(g); // tiles have to come out as the cards they are copied into would
+
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, strip.getWidth(), strip.getHeight());
+        g.setColor(Color.BLACK);
+        g.setFont(layout.font());
+
+        for (int c = 0; c < CODES; c++) {
+
+            int tileX = c * tileWidth;
+            int col = tileX - mTileOffset;
+
+            g.setClip(tileX, 0, tileWidth, tileHeight);
+            BusinessCardCanvas.punchLetter((char)c, col, col + punchOffset, layout, g);
+
+            mTiles[c] = strip.getSubimage(tileX, 0, tileWidth, tileHeight);
+
+        }
+
+        g.dispose();
+
+    }
+
+    /**
+     * @return true if the char has a tile, only 7-bit chars do
+     */
+    static boolean hasTile(char c) {
+
+        return c < CODES;
+
+    }
+
+    /**
+     * Copies the tile for the char to the column starting at col.  Chars without a tile are left for the caller to
+     * draw the slow way.
+     */
+    void drawColumn(Graphics g, char c, int col) {
+
+        if (hasTile(c)) {
+            g.drawImage(mTiles[c], col + mTileOffset, 0, null);
+        }
+
+    }
+
+    /**
+     * Everything that changes what a column looks like.
+     */
+    private static final class Key {
+
+        final Font font;
+        final int titleCharSpacing;
+        final int maxCharWidth;
+        final int titleBaseline;
+        final int punchOffset;
+        final int punchWidth;
+        final int punchHeight;
+        final int[] punchY;
+        final int tileHeight;
+
+        Key(CardLayout layout) {
+
+            font = layout.font();
+            titleCharSpacing = layout.titleCharSpacing;
+            maxCharWidth = (int)layout.fit.maxCharWidth;
+            titleBaseline = layout.titleBaseline;
+            punchOffset = layout.titleLen > 0 ? layout.punchX[0] - layout.columnX[0] : 0;
+            punchWidth = layout.punchWidth;
+            punchHeight = layout.punchHeight;
+            punchY = layout.punchY;
+            tileHeight = layout.columnHeight;
+
+        }
+
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key)o;
+            return font.equals(other.font) && titleCharSpacing == other.titleCharSpacing
+                    && maxCharWidth == other.maxCharWidth && titleBaseline == other.titleBaseline
+                    && punchOffset == other.punchOffset && punchWidth == other.punchWidth
+                    && punchHeight == other.punchHeight && Arrays.equals(punchY, other.punchY)
+                    && tileHeight == other.tileHeight;
+
+        }
+
+        public int hashCode() {
+
+            return Objects.hash(font, titleCharSpacing, maxCharWidth, titleBaseline, punchOffset, punchWidth, punchHeight,
+                    Arrays.hashCode(punchY), tileHeight);
+
+        }
+
+    }
+
+}
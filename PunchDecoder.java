@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Reads the punches back off a rendered or scanned card, to check that what came out encodes what went in.
+ *
+ * The layout of a card only depends on the lengths of its text (see CardLayout), so given the lengths from the roster
+ * the decoder knows where every punch of every column should be.  It looks at the middle of each of those punch
+ * rectangles, dark means the bit is set, and puts the 7 bits of each column back together into a char.  Only a
+ * handful of pixels per punch are looked at, nothing is drawn, so it is much faster than rendering the card was.
+ *
+ * Images can be at any resolution, the geometry is scaled to fit.  A scan has to be cropped to the card and straight.
+ *
+ * Run on its own it verifies the output of a BusinessCardBatch run, every card in parallel as the roster streams in, and
+ * reports each card that does not decode to its title, followed by timings.  Cards rendered with a shared size need the
+ * same -Dbusinesscard.fit=shared as the batch, see CardFitting.
+ *
+ * Usage: PunchDecoder roster outDir [png|pbm] [threads] [dpi]
+ */
+final class PunchDecoder {
+
+    private static final int DARK = 128; // average gray below this is a punch
+    private static final int SAMPLES = 3; // per punch, across and down
+
+    private PunchDecoder() {
+    }
+
+    public static void main( String args[] ) {
+
+        System.setProperty("java.awt.headless", "true");
+
+        String usage = "Usage: PunchDecoder roster outDir [png|pbm] [threads] [dpi]";
+
+        if (args.length < 2) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        String format = args.length > 2 ? args[2] : "png";
+        int threads = BusinessCardBatch.intArg(args, 3, "threads", Runtime.getRuntime().availableProcessors(), 1,
+                BusinessCardBatch.MAX_THREADS, usage);
+        int dpi = BusinessCardBatch.intArg(args, 4, "dpi", Supersampler.SCREEN_DPI, Supersampler.SCREEN_DPI,
+                Supersampler.MAX_DPI, usage);
+
+        try {
+
+            CardFitting fitting = CardFitting.forRoster(args[0]);
+            RosterReader roster = new RosterReader(args[0], null);
+            File dir = new File(args[1]);
+
+            Map<Long, String> mismatches = new ConcurrentSkipListMap<>();
+            RenderMetrics.Timer read = RenderMetrics.timer("decode.read");
+            RenderMetrics.Timer decode = RenderMetrics.timer("decode");
+            LongAdder checked = new LongAdder();
+            FontRenderContext frc = CardLayout.DEFAULT_FRC; // every resolution is laid out at 72 DPI
+
+            long start = System.nanoTime();
+
+            roster.forEach(threads, entry -> {
+
+                CardRecord record = entry.record;
+                File file = new File(dir, String.format("card-%06d.%s", entry.number, format));
+                BufferedImage image;
+
+                long t = System.nanoTime();
+
+                try {
+                    image = CardImageIO.read(file);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException("Could not read " + file, ioe);
+                }
+
+                read.stop(t);
+                t = System.nanoTime();
+
+                String decoded = decode(image, layoutFor(record.title.length(), record.bottom.length(), fitting, frc));
+
+                decode.stop(t);
+                checked.increment();
+
+                if (!decoded.equals(record.title)) {
+                    mismatches.put(entry.number, file.getName() + ": expected \"" + record.title + "\" decoded \"" + decoded + "\"");
+                }
+
+            });
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            for (String mismatch : mismatches.values()) {
+                System.out.println(mismatch);
+            }
+
+            System.out.printf(Locale.ROOT, "Checked %d cards in %.3f s on %d threads: %.1f cards/s, %d mismatched%n",
+                    checked.sum(), seconds, threads, checked.sum() / seconds, mismatches.size());
+            System.out.println(read);
+            System.out.println(decode);
+
+            if (!mismatches.isEmpty()) {
+                System.exit(3);
+            }
+
+        } catch (IOException | UncheckedIOException | IllegalArgumentException | ExecutionException e) {
+
+            e.printStackTrace();
+            System.exit(2);
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+            System.exit(2);
+
+        }
+
+    }
+
+    /**
+     * @param titleLen chars in the title of the card
+     * @param bottomLen chars in the bottom line of the card
+     * @param fitting how the batch fitted the cards, the same businesscard.fit it was run with
+     * @param frc what the card was laid out with, see Supersampler.fontRenderContext
+     * @return the layout the card was rendered with
+     */
+    static CardLayout layoutFor(int titleLen, int bottomLen, CardFitting fitting, FontRenderContext frc) {
+
+        return fitting.layout(titleLen, bottomLen, new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT), frc);
+
+    }
+
+    /**
+     * Reads the title back out of the punches of a card.
+     * @param image the card, any size, the layout is scaled to it
+     * @param layout the layout the card was rendered with
+     * @return the title the punches encode
+     */
+    static String decode(BufferedImage image, CardLayout layout) {
+
+        Pixels pixels = Pixels.of(image);
+        double sx = (double)image.getWidth() / layout.width;
+        double sy = (double)image.getHeight() / layout.height;
+        char[] title = new char[layout.titleLen];
+
+        for (int col = 0; col < layout.titleLen; col++) {
+
+            int c = 0;
+
+            for (int bit = 0; bit < CardLayout.PUNCH_ROWS; bit++) {
+
+                if (isPunched(pixels, layout.punchX[col] * sx, layout.punchY[bit] * sy,
+                        layout.punchWidth * sx, layout.punchHeight * sy)) {
+                    c |= 1 << bit;
+                }
+
+            }
+
+            title[col] = (char)c;
+
+        }
+
+        return new String(title);
+
+    }
+
+    /**
+     * Averages a few pixels spread over the middle half of the punch rectangle, so a pixel or two of misregistration or
+     * antialiasing at the edges doesn't matter.
+     */
+    private static boolean isPunched(Pixels pixels, double x, double y, double w, double h) {
+
+        int sum = 0;
+
+        for (int j = 0; j < SAMPLES; j++) {
+
+            int py = (int)(y + h * (j + 1) / (SAMPLES + 1));
+
+            for (int i = 0; i < SAMPLES; i++) {
+                sum += pixels.gray((int)(x + w * (i + 1) / (SAMPLES + 1)), py);
+            }
+
+        }
+
+        return sum < DARK * SAMPLES * SAMPLES;
+
+    }
+
+    /**
+     * Gray level of a pixel, read straight out of the raster for the image types cards are rendered as.
+     */
+    private interface Pixels {
+
+        int gray(int x, int y);
+
+        static Pixels of(BufferedImage image) {
+
+            int w = image.getWidth();
+            int h = image.getHeight();
+
+            if (BinaryCardRaster.isBinary(image)) {
+
+                byte[] bits = BinaryCardRaster.data(image);
+                int stride = BinaryCardRaster.stride(image);
+
+                // 0 is black
+                return (x, y) -> x < 0 || y < 0 || x >= w || y >= h ? 255
+                        : ((bits[y * stride + (x >> 3)] >> (7 - (x & 7))) & 1) * 255;
+
+            }
+
+            if (image.getType() == BufferedImage.TYPE_BYTE_GRAY && image.getRaster().getParent() == null) {
+
+                byte[] gray = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+                int stride = ((ComponentSampleModel)image.getSampleModel()).getScanlineStride();
+
+                return (x, y) -> x < 0 || y < 0 || x >= w || y >= h ? 255 : gray[y * stride + x] & 0xff;
+
+            }
+
+            // anything else, like a color scan
+            return (x, y) -> {
+
+                if (x < 0 || y < 0 || x >= w || y >= h) {
+                    return 255;
+                }
+
+                int rgb = image.getRGB(x, y);
+                return (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114) / 1000;
+
+            };
+
+        }
+
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Rendered cards, looked up by content: the key is a SHA-256 of the title, bottom line, card size, DPI, format, the
+ * font and the version of the drawing code.  The same card always gets the same key, whichever process asked for it.
+ *
+ * There are two tiers.  The memory tier is a least recently used map bounded by the bytes it holds.  Behind it is an
+ * optional MappedCacheStore on disk, which survives restarts.  A disk hit is copied into the memory tier.  Hits and
+ * misses of each tier are counted in RenderMetrics.
+ *
+ * The shared cache is set up from system properties:
+ * <ul>businesscard.cache.memory - bytes the memory tier can hold, 0 for none (default 64 MB)
+ * <ul>businesscard.cache.dir - where the disk tier goes, empty for none (default .cache/businesscard in user.home).  It
+ * has to be the user's own, see MappedCacheStore.
+ * <ul>businesscard.cache.disk - bytes the disk tier can use (default 256 MB)
+ *
+ * Cached data is shared, callers must not modify the arrays they get back.
+ */
+final class RenderCache {
+
+    // bump this whenever a change to the drawing code changes what cards look like, so old entries are not used
+    static final int RENDER_VERSION = 2;
+
+    private static final long DEFAULT_MEMORY_BYTES = 64L << 20;
+    private static final long DEFAULT_DISK_BYTES = 256L << 20;
+
+    private static final byte[] FONT_VERSION = sha256(TTF.getFontData());
+
+    private static RenderCache sShared;
+
+    private final long mMaxMemoryBytes;
+    private final MappedCacheStore mDisk;
+
+    // least recently used first
+    private final Map<Key, byte[]> mMemory = new LinkedHashMap<>(256, 0.75f, true);
+    private long mMemoryBytes;
+
+    private final LongAdder mMemoryHits = RenderMetrics.counter("cache.hit.memory");
+    private final LongAdder mDiskHits = RenderMetrics.counter("cache.hit.disk");
+    private final LongAdder mMisses = RenderMetrics.counter("cache.miss");
+
+    /**
+     * Something that renders a card when it is not in the cache.
+     */
+    interface Renderer {
+
+        byte[] render() throws IOException;
+
+    }
+
+    /**
+     * @param maxMemoryBytes how much the memory tier can hold, 0 for no memory tier
+     * @param disk the disk tier, null for none
+     */
+    RenderCache(long maxMemoryBytes, MappedCacheStore disk) {
+
+        mMaxMemoryBytes = maxMemoryBytes;
+        mDisk = disk;
+
+    }
+
+    /**
+     * @return the process wide cache, set up from the system properties the first time it is asked for
+     */
+    static synchronized RenderCache shared() {
+
+        if (sShared == null) {
+
+            long memory = Long.getLong("businesscard.cache.memory", DEFAULT_MEMORY_BYTES);
+            String dir = System.getProperty("businesscard.cache.dir",
+                    Paths.get(System.getProperty("user.home"), ".cache", "businesscard").toString());
+            MappedCacheStore disk = null;
+
+            if (!dir.isEmpty()) {
+
+                try {
+
+                    Path path = Paths.get(dir);
+                    disk = MappedCacheStore.open(path, Long.getLong("businesscard.cache.disk", DEFAULT_DISK_BYTES));
+
+                    if (disk == null) {
+                        System.err.println("Render cache in " + path + " is in use by another process, using memory only.");
+                    }
+
+                } catch (IOException ioe) {
+
+                    System.err.println("Could not open the render cache in " + dir + ", using memory only: " + ioe);
+
+                }
+
+            }
+
+            sShared = new RenderCache(memory, disk);
+
+        }
+
+        return sShared;
+
+    }
+
+    /**
+     * Makes the key of a rendered card.  Vector formats don't depend on the resolution, so for svg and pdf the dpi is
+     * left out and they are shared between resolutions.
+     * @param format what the card is rendered as, like png, pbm, svg, pdf or gray for raw 8 bit pixels
+     * @param titleText top line
+     * @param bottomText bottom line
+     * @param width card width in 72 DPI pixels
+     * @param height card height in 72 DPI pixels
+     * @param dpi resolution rendered at
+     * @return the key
+     */
+    static Key key(String format, String titleText, String bottomText, int width, int height, int dpi) {
+
+        return key(format, titleText, bottomText, width, height, dpi, -1);
+
+    }
+
+    /**
+     * Makes the key of a card rendered with the given fitting.  A card fitted as itself has the same key as above.
+     * @param fitting how the card's font size was picked
+     * @see #key(String, String, String, int, int, int)
+     */
+    static Key key(String format, String titleText, String bottomText, int width, int height, int dpi, CardFitting fitting) {
+
+        return key(format, titleText, bottomText, width, height, dpi,
+                fitting.fitsOwnShape(titleText.length(), bottomText.length()) ? -1 : fitting.sharedColumns());
+
+    }
+
+    private static Key key(String format, String titleText, String bottomText, int width, int height, int dpi, int fitColumns) {
+
+        MessageDigest md = newSha256();
+
+        md.update(FONT_VERSION);
+        md.update(ByteBuffer.allocate(16).putInt(RENDER_VERSION).putInt(width).putInt(height)
+                .putInt(format.equals("svg") || format.equals("pdf") ? 0 : dpi).array());
+        md.update(format.getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(titleText.getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(bottomText.getBytes(StandardCharsets.UTF_8));
+
+        // the text has no control chars, so this can't be mistaken for more of it
+        if (fitColumns >= 0) {
+            md.update((byte)0);
+            md.update(ByteBuffer.allocate(4).putInt(fitColumns).array());
+        }
+
+        return new Key(md.digest());
+
+    }
+
+    /**
+     * Gets a card from the cache, rendering and caching it if it isn't there.  Two threads missing on the same key at
+     * the same time both render it, which is cheaper than making one wait.
+     * @param key what the card is
+     * @param renderer renders the card if it is not cached
+     * @return the rendered card, shared, not to be modified
+     * @throws IOException if the renderer fails
+     */
+    byte[] get(Key key, Renderer renderer) throws IOException {
+
+        byte[] data = get(key);
+
+        if (data == null) {
+            data = renderer.render();
+            put(key, data);
+        }
+
+        return data;
+
+    }
+
+    /**
+     * @return the cached card, null if it is in neither tier
+     */
+    byte[] get(Key key) {
+
+        synchronized (mMemory) {
+
+            byte[] data = mMemory.get(key);
+
+            if (data != null) {
+                mMemoryHits.increment();
+                return data;
+            }
+
+        }
+
+        if (mDisk != null) {
+
+            byte[] data = mDisk.get(key);
+
+            if (data != null) {
+                mDiskHits.increment();
+                putInMemory(key, data);
+                return data;
+            }
+
+        }
+
+        mMisses.increment();
+        return null;
+
+    }
+
+    /**
+     * Caches a card in both tiers.  A failure to write the disk tier is not the caller's problem, the card just isn't
+     * cached on disk.
+     */
+    void put(Key key, byte[] data) {
+
+        putInMemory(key, data);
+
+        if (mDisk != null) {
+
+            try {
+                mDisk.put(key, data);
+            } catch (IOException ioe) {
+                System.err.println("Could not write to the render cache: " + ioe);
+            }
+
+        }
+
+    }
+
+    /**
+     * @return hits and misses so far, like "memory hits 10, disk hits 2, misses 5"
+     */
+    String stats() {
+
+        return "memory hits " + mMemoryHits.sum() + ", disk hits " + mDiskHits.sum() + ", misses " + mMisses.sum();
+
+    }
+
+    private void putInMemory(Key key, byte[] data) {
+
+        if (data.length > mMaxMemoryBytes) {
+            return;
+        }
+
+        synchronized (mMemory) {
+
+            byte[] old = mMemory.put(key, data);
+            mMemoryBytes += data.length - (old == null ? 0 : old.length);
+
+            Iterator<byte[]> eldest = mMemory.values().iterator();
+
+            while (mMemoryBytes > mMaxMemoryBytes && eldest.hasNext()) {
+                mMemoryBytes -= eldest.next().length;
+                eldest.remove();
+            }
+
+        }
+
+    }
+
+    private static byte[] sha256(ByteBuffer data) {
+
+        MessageDigest md = newSha256();
+        md.update(data);
+        return md.digest();
+
+    }
+
+    private static MessageDigest newSha256() {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+
+    }
+
+    /**
+     * The digest of a card, what both tiers are keyed by.
+     */
+    static final class Key {
+
+        static final int LENGTH = 32; // bytes in a SHA-256
+
+        private final byte[] mDigest;
+        private final int mHash;
+
+        private Key(byte[] digest) {
+
+            mDigest = digest;
+            mHash = ByteBuffer.wrap(digest).getInt(); // it's a cryptographic hash, any 4 bytes will do
+
+        }
+
+        static Key readFrom(ByteBuffer buffer) {
+
+            byte[] digest = new byte[LENGTH];
+            buffer.get(digest);
+            return new Key(digest);
+
+        }
+
+        void writeTo(ByteBuffer buffer) {
+
+            buffer.put(mDigest);
+
+        }
+
+        public boolean equals(Object o) {
+
+            return o instanceof Key && Arrays.equals(mDigest, ((Key)o).mDigest);
+
+        }
+
+        public int hashCode() {
+
+            return mHash;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Process wide counters and latency histograms for the stages of rendering a card: fitting the font, painting the
+ * card, printing a page and loading the font.  Always on, recording costs a couple of nanoTime calls and a few atomic
+ * adds, so it can stay in production runs.  CardEvents has the same stages as Flight Recorder events for when more
+ * detail than totals and percentiles is needed.
+ *
+ * Histograms keep 8 buckets per power of two, so percentiles are good to within about 12%, which is plenty to tell a
+ * slow fit from a slow paint.  Besides times they are used for bytes allocated per card, see allocatedBytes().
+ */
+final class RenderMetrics {
+
+    static final Timer FIT = timer("fit");
+    static final Timer PAINT = timer("paint");
+    static final Timer PRINT_PAGE = timer("print.page");
+    static final Timer FONT_LOAD = timer("font.load");
+    static final Timer FONT_CREATE = timer("font.create"); // the AWT font, only needed to draw glyphs
+
+    static final LongAdder FIT_STEPS = counter("fit.steps"); // point sizes measured while fitting
+    static final LongAdder FONT_DERIVED = counter("font.derived"); // point size/transform fonts derived
+    static final LongAdder PRINT_CARDS = counter("print.cards"); // cards drawn on printed pages
+
+    private RenderMetrics() {
+    }
+
+    /**
+     * @param name what is being timed, names are shared process wide
+     * @return the timer of that name, created the first time it is asked for
+     * @throws IllegalArgumentException if the name is taken by a histogram of bytes
+     */
+    static Timer timer(String name) {
+
+        Histogram h = Holder.HISTOGRAMS.computeIfAbsent(name, Timer::new);
+
+        if (!(h instanceof Timer)) {
+            throw new IllegalArgumentException("Metric " + name + " is a histogram of bytes, not a timer");
+        }
+
+        return (Timer)h;
+
+    }
+
+    /**
+     * @param name what is being measured in bytes, names are shared process wide
+     * @return the histogram of that name, created the first time it is asked for
+     * @throws IllegalArgumentException if the name is taken by a timer
+     */
+    static Histogram bytes(String name) {
+
+        Histogram h = Holder.HISTOGRAMS.computeIfAbsent(name, k -> new Histogram(k, "B", 1));
+
+        if (h instanceof Timer) {
+            throw new IllegalArgumentException("Metric " + name + " is a timer, not a histogram of bytes");
+        }
+
+        return h;
+
+    }
+
+    /**
+     * @return how many bytes the current thread has allocated since it started, -1 if the JVM can't tell
+     */
+    static long allocatedBytes() {
+
+        com.sun.management.ThreadMXBean threads = Allocation.THREADS;
+        return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+    }
+
+    /**
+     * @param name what is being counted, names are shared process wide
+     * @return the counter of that name, created the first time it is asked for
+     */
+    static LongAdder counter(String name) {
+
+        return Holder.COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+
+    }
+
+    /**
+     * @return one line per timer and counter that has recorded anything, sorted by name
+     */
+    static String report() {
+
+        StringBuilder sb = new StringBuilder();
+
+        for (Histogram h : new TreeMap<>(Holder.HISTOGRAMS).values()) {
+
+            if (h.count() > 0) {
+                sb.append(h).append(System.lineSeparator());
+            }
+
+        }
+
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(Holder.COUNTERS).entrySet()) {
+
+            long n = e.getValue().sum();
+
+            if (n > 0) {
+                sb.append(String.format(Locale.ROOT, "%-12s %d%n", e.getKey(), n));
+            }
+
+        }
+
+        return sb.toString();
+
+    }
+
+    /**
+     * The maps are in a holder so they exist before the static timers and counters above are created.
+     */
+    private static final class Holder {
+
+        static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+        static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    }
+
+    /**
+     * Kept apart from the Holder, since java.lang.management takes a while to load and only the batch asks.
+     */
+    private static final class Allocation {
+
+        static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+        private static com.sun.management.ThreadMXBean allocationBean() {
+
+            try {
+
+                java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+                if (bean instanceof com.sun.management.ThreadMXBean) {
+
+                    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+
+                    if (threads.isThreadAllocatedMemorySupported()) {
+                        threads.setThreadAllocatedMemoryEnabled(true);
+                        return threads;
+                    }
+
+                }
+
+            } catch (RuntimeException | LinkageError e) {
+                // no management support, like in a native image
+            }
+
+            return null;
+
+        }
+
+    }
+
+    /**
+     * A count, total and histogram of some non-negative quantity.  Safe to record to from any number of threads.
+     */
+    static class Histogram {
+
+        private static final int SUB_BITS = 3; // 8 buckets per power of two
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final String mName;
+        private final String mUnit; // what values are shown in
+        private final double mScale; // recorded values per unit
+        private final LongAdder mCount = new LongAdder();
+        private final LongAdder mTotal = new LongAdder();
+        private final AtomicLongArray mBuckets = new AtomicLongArray(64 * SUB_COUNT);
+
+        Histogram(String name, String unit, double scale) {
+
+            mName = name;
+            mUnit = unit;
+            mScale = scale;
+
+        }
+
+        void record(long value) {
+
+            value = Math.max(0, value);
+            mCount.increment();
+            mTotal.add(value);
+            mBuckets.incrementAndGet(bucket(value));
+
+        }
+
+        long count() {
+
+            return mCount.sum();
+
+        }
+
+        long total() {
+
+            return mTotal.sum();
+
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return the upper bound of the bucket that percentile falls in, 0 if nothing was recorded
+         */
+        long percentile(double fraction) {
+
+            long total = 0;
+            long[] counts = new long[mBuckets.length()];
+
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = mBuckets.get(i);
+                total += counts[i];
+            }
+
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long)Math.ceil(fraction * total));
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+
+            }
+
+            return upperBound(counts.length - 1);
+
+        }
+
+        /**
+         * Values below SUB_COUNT get a bucket each, above that the top SUB_BITS + 1 bits pick the bucket.
+         */
+        private static int bucket(long value) {
+
+            if (value < SUB_COUNT) {
+                return (int)value;
+            }
+
+            int exp = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+            int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+
+        }
+
+        private static long upperBound(int bucket) {
+
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+
+            int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+            int sub = bucket % SUB_COUNT;
+            return ((long)(SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+
+        }
+
+        public String toString() {
+
+            long n = count();
+
+            return String.format(Locale.ROOT, "%-12s n=%d mean=%.1f%s p50=%.1f%s p99=%.1f%s max<=%.1f%s",
+                    mName, n, n == 0 ? 0 : total() / mScale / n, mUnit, percentile(0.5) / mScale, mUnit,
+                    percentile(0.99) / mScale, mUnit, percentile(1) / mScale, mUnit);
+
+        }
+
+    }
+
+    /**
+     * A histogram of nanoseconds, shown in microseconds.  One made with new rather than timer() is not in the report.
+     */
+    static final class Timer extends Histogram {
+
+        Timer(String name) {
+
+            super(name, "us", 1e3);
+
+        }
+
+        /**
+         * Records one run of the stage.
+         * @param startNanos System.nanoTime() when the stage started
+         * @return the time taken, in nanoseconds
+         */
+        long stop(long startNanos) {
+
+            long nanos = System.nanoTime() - startNanos;
+            record(nanos);
+            return nanos;
+
+        }
+
+    }
+
+}
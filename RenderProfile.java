@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * The rendering hints a card is drawn with, so a card looks the same every time it is drawn for the same purpose
+ * rather than however the platform's defaults happen to be.  There are two:
+ * <ul>BATCH, cards rendered to files, and the preview while typing.  Nothing is antialiased, metrics are whole pixels
+ * and everything is done the fastest way.  Supersampler antialiases by drawing big and averaging, which is better and
+ * cheaper than Java 2D doing it, and 1 bit images can't have it.  The preview, redrawn on every key, gets the same
+ * hints: there is nothing left in them to give up for speed, and with them a card at 72 DPI is the same as the
+ * preview, pixel for pixel, so the two can share the RenderCache.
+ * <ul>PRINT, pages sent to a printer.  Shapes and text are antialiased, text uses fractional metrics and strokes are
+ * not moved to pixel centers, so the printer gets the card as laid out at whatever resolution it prints at.
+ *
+ * None of them use LCD text, which only looks right on an LCD the right way up, and a card is a picture of paper.
+ *
+ * A profile is applied by replacing all of the hints of the graphics, before anything is drawn and before the layout
+ * is worked out, since the FontRenderContext the layout goes by depends on the text hints.  fontRenderContext() gives
+ * the same one without a graphics.
+ */
+final class RenderProfile {
+
+    static final RenderProfile BATCH = new RenderProfile("batch",
+            RenderingHints.VALUE_ANTIALIAS_OFF,
+            RenderingHints.VALUE_TEXT_ANTIALIAS_OFF,
+            RenderingHints.VALUE_FRACTIONALMETRICS_OFF,
+            RenderingHints.VALUE_STROKE_NORMALIZE,
+            RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR,
+            RenderingHints.VALUE_RENDER_SPEED);
+
+    static final RenderProfile PRINT = new RenderProfile("print",
+            RenderingHints.VALUE_ANTIALIAS_ON,
+            RenderingHints.VALUE_TEXT_ANTIALIAS_ON,
+            RenderingHints.VALUE_FRACTIONALMETRICS_ON,
+            RenderingHints.VALUE_STROKE_PURE,
+            RenderingHints.VALUE_INTERPOLATION_BICUBIC,
+            RenderingHints.VALUE_RENDER_QUALITY);
+
+    final String name;
+
+    private final RenderingHints mHints;
+
+    private RenderProfile(String name, Object antialiasing, Object textAntialiasing, Object fractionalMetrics,
+                          Object strokeControl, Object interpolation, Object rendering) {
+
+        this.name = name;
+
+        mHints = new RenderingHints(RenderingHints.KEY_ANTIALIASING, antialiasing);
+        mHints.put(RenderingHints.KEY_TEXT_ANTIALIASING, textAntialiasing);
+        mHints.put(RenderingHints.KEY_FRACTIONALMETRICS, fractionalMetrics);
+        mHints.put(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+        mHints.put(RenderingHints.KEY_INTERPOLATION, interpolation);
+        mHints.put(RenderingHints.KEY_RENDERING, rendering);
+
+    }
+
+    /**
+     * @param name batch or print
+     * @return the profile of that name
+     * @throws IllegalArgumentException if there is no such profile
+     */
+    static RenderProfile forName(String name) {
+
+        switch (name) {
+
+            case "batch":
+                return BATCH;
+
+            case "print":
+                return PRINT;
+
+            default:
+                throw new IllegalArgumentException("Unknown render profile " + name + ", must be batch or print.");
+
+        }
+
+    }
+
+    /**
+     * Replaces all of the rendering hints of the graphics with this profile's.
+     * @param g graphics about to draw a card
+     */
+    void applyTo(Graphics2D g) {
+
+        g.setRenderingHints(mHints);
+
+    }
+
+    /**
+     * @param tx transform from the card to the device, null for none
+     * @return the FontRenderContext a graphics with this transform gets once this profile is applied to it
+     */
+    FontRenderContext fontRenderContext(AffineTransform tx) {
+
+        // a graphics leaves the translation out, it doesn't change the metrics
+        AffineTransform scale = tx == null ? null
+                : new AffineTransform(tx.getScaleX(), tx.getShearY(), tx.getShearX(), tx.getScaleY(), 0, 0);
+
+        return new FontRenderContext(scale, mHints.get(RenderingHints.KEY_TEXT_ANTIALIASING),
+                mHints.get(RenderingHints.KEY_FRACTIONALMETRICS));
+
+    }
+
+    @Override
+    public String toString() {
+
+        return name;
+
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * An image and a Graphics2D drawing into it, kept for the next card instead of being thrown away.  A card at 72 DPI is
+ * quick to draw, so allocating its image, and setting up a Graphics2D for it, is a good part of the cost of a card, and
+ * at batch scale makes for a lot of garbage.  A supersampled card image is megabytes.
+ *
+ * Each thread has its own targets, one per slot, so a worker renders every card into the same images without any
+ * locking.  A target is only replaced when a card of a different size or image type is asked for.  forThread() hands
+ * the graphics back as they were when created: no transform, no clip and the default paint, stroke, composite and font.
+ * The graphics get the BATCH RenderProfile when created.  Rendering hints aren't put back, as that allocates, so
+ * whoever changes hints has to apply a profile again.  Anything drawn before is still in the image, which is fine for
+ * the card painters as they fill in the whole card first.
+ *
+ * What a target holds is overwritten by the next card the thread renders into it, so the image has to be encoded or
+ * copied before then.
+ */
+final class RenderTarget {
+
+    static final int CARD = 0; // a card at the resolution it is written at
+    static final int SUPERSAMPLED = 1; // what Supersampler draws in before scaling down
+    static final int BAND = 2; // a band of a sheet, see SheetRasterizer
+    static final int SLOTS = 3;
+
+    private static final ThreadLocal<RenderTarget[]> sThreadTargets =
+            ThreadLocal.withInitial(() -> new RenderTarget[SLOTS]);
+
+    final BufferedImage image;
+    final Graphics2D graphics;
+
+    // as created, to put the graphics back to
+    private final AffineTransform mTransform;
+    private final Paint mPaint;
+    private final Stroke mStroke;
+    private final Composite mComposite;
+    private final Font mFont;
+
+    /**
+     * A target of its own, for callers that pool them some other way than by thread.
+     * @param width in pixels
+     * @param height in pixels
+     * @param imageType BufferedImage.TYPE_BYTE_GRAY or TYPE_BYTE_BINARY
+     */
+    RenderTarget(int width, int height, int imageType) {
+
+        image = imageType == BufferedImage.TYPE_BYTE_BINARY ? BinaryCardRaster.newImage(width, height)
+                : new BufferedImage(width, height, imageType);
+        graphics = image.createGraphics();
+        RenderProfile.BATCH.applyTo(graphics);
+        mTransform = graphics.getTransform();
+        mPaint = graphics.getPaint();
+        mStroke = graphics.getStroke();
+        mComposite = graphics.getComposite();
+        mFont = graphics.getFont();
+
+    }
+
+    /**
+     * @param slot CARD, SUPERSAMPLED or BAND
+     * @param width in pixels
+     * @param height in pixels
+     * @param imageType BufferedImage.TYPE_BYTE_GRAY or TYPE_BYTE_BINARY
+     * @return the calling thread's target in that slot, ready to draw a card in
+     */
+    static RenderTarget forThread(int slot, int width, int height, int imageType) {
+
+        return forSlot(sThreadTargets.get(), slot, width, height, imageType);
+
+    }
+
+    /**
+     * Same as above, for targets kept by the caller rather than the thread, like a pool of them.
+     * @param targets SLOTS long, a target that gets replaced is replaced in here
+     * @return the target in that slot, ready to draw a card in
+     */
+    static RenderTarget forSlot(RenderTarget[] targets, int slot, int width, int height, int imageType) {
+
+        RenderTarget target = targets[slot];
+
+        if (target == null || target.image.getWidth() != width || target.image.getHeight() != height
+                || target.image.getType() != imageType) {
+
+            // let go of the old image first, a supersampled one is tens of MB
+            if (target != null) {
+                target.graphics.dispose();
+                targets[slot] = null;
+            }
+
+            target = new RenderTarget(width, height, imageType);
+            targets[slot] = target;
+            return target;
+
+        }
+
+        target.reset();
+        return target;
+
+    }
+
+    /**
+     * Puts the graphics back the way they were when the target was created.
+     */
+    void reset() {
+
+        graphics.setTransform(mTransform);
+        graphics.setClip(null);
+        graphics.setPaint(mPaint);
+        graphics.setStroke(mStroke);
+        graphics.setComposite(mComposite);
+        graphics.setFont(mFont);
+
+    }
+
+}
@@ -0,0 +1,752 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Streams the records of a roster to the render stage without ever holding the whole roster in memory.
+ *
+ * Three kinds of roster are read, picked by the file name:
+ * <ul>.csv - comma separated, quoted fields can have commas, quotes ("") and line breaks in them.  If the first row has
+ * a column named title, that row is the header and the title and bottom columns are used, otherwise the first two
+ * columns are the title and bottom.  A record whose quotes aren't closed within MAX_CSV_LINES lines or MAX_CSV_CHARS
+ * chars is rejected, and reading goes on at the line after the one it started on, so a stray quote costs one record
+ * rather than the rest of the roster.
+ * <ul>.jsonl or .ndjson - one JSON object per line, with "title" and "bottom" string members.
+ * <ul>anything else - title, a tab and the bottom line, one card per line.
+ *
+ * Every record is checked with CardRecord.problem(), the same rules the editor applies while typing.  Records that
+ * break them, or can't be parsed, are written to the error file with their line number and the reason, and reading
+ * goes on.  Accepted records are numbered from 1 in roster order, which is what output files are named by.
+ *
+ * The reader runs on the calling thread and puts records into a bounded queue that the workers take from, so when the
+ * renderers fall behind the reader simply waits.  Memory use depends on the queue size, not the roster size.
+ */
+final class RosterReader {
+
+    static final int QUEUE_CAPACITY = 1024; // records read ahead of the renderers at most
+    static final int MAX_CSV_LINES = 32; // a quoted field can go on for this many lines at most
+    static final int MAX_CSV_CHARS = 8192; // and a record can be this long at most
+
+    private static final Entry END = new Entry(0, 0, null); // tells a worker there are no more records
+    private static final long POLL_MS = 100; // how often a blocked reader checks whether the workers gave up
+
+    private final String mName;
+    private final File mErrorFile;
+
+    private long mAccepted;
+    private long mRejected;
+    private long mLine; // line number of the input the record being parsed starts on
+    private Writer mErrors; // opened on the first reject
+
+    /**
+     * One accepted record.
+     */
+    static final class Entry {
+
+        final long number; // of the accepted record, from 1
+        final long line; // where it starts in the roster
+        final CardRecord record;
+
+        Entry(long number, long line, CardRecord record) {
+
+            this.number = number;
+            this.line = line;
+            this.record = record;
+
+        }
+
+    }
+
+    /**
+     * @param name roster file name or "-" for a tab separated roster on stdin
+     * @param errorFile where rejected records go, null to only count them
+     */
+    RosterReader(String name, File errorFile) {
+
+        mName = name;
+        mErrorFile = errorFile;
+
+    }
+
+    /**
+     * Reads the roster and hands each accepted record to one of the given number of workers, which run in parallel on
+     * a fork-join pool.  Returns once every record has been handled.  If a worker throws, reading stops and the first
+     * exception is rethrown wrapped in an ExecutionException.
+     * @param threads how many workers
+     * @param worker what to do with each record, called from many threads
+     * @return how many records were accepted
+     * @throws IOException if the roster can not be read or the error file written
+     */
+    long forEach(int threads, Consumer<Entry> worker) throws IOException, InterruptedException, ExecutionException {
+
+        BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+
+        try {
+
+            for (int i = 0; i < threads; i++) {
+
+                workers.add(pool.submit(() -> {
+
+                    try {
+
+                        for (Entry entry = queue.take(); entry != END; entry = queue.take()) {
+                            worker.accept(entry);
+                        }
+
+                    } catch (InterruptedException ie) {
+
+                        Thread.currentThread().interrupt();
+
+                    } catch (RuntimeException | Error e) {
+
+                        failure.compareAndSet(null, e);
+                        throw e;
+
+                    }
+
+                }));
+
+            }
+
+            read(entry -> put(queue, entry, failure));
+
+            if (failure.get() != null) {
+                throw new ExecutionException(failure.get()); // the other workers are stopped below
+            }
+
+            for (int i = 0; i < threads; i++) {
+                put(queue, END, failure);
+            }
+
+            for (Future<?> f : workers) {
+                f.get();
+            }
+
+        } catch (ReadAborted e) {
+
+            throw new ExecutionException(failure.get());
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+        return mAccepted;
+
+    }
+
+    /**
+     * Reads the roster and hands each accepted record to the worker on the calling thread, in roster order.
+     * @return how many records were accepted
+     * @throws IOException if the roster can not be read or the error file written
+     */
+    long forEachInOrder(Consumer<Entry> worker) throws IOException {
+
+        read(worker);
+        return mAccepted;
+
+    }
+
+    /**
+     * Reads the whole roster into memory, for the few things that need all of the records at once, like imposing them
+     * on pages.
+     * @return the accepted records in roster order
+     * @throws IOException if the roster can not be read or the error file written
+     */
+    List<CardRecord> readAll() throws IOException {
+
+        List<CardRecord> records = new ArrayList<>();
+        read(entry -> records.add(entry.record));
+        return records;
+
+    }
+
+    /**
+     * @return how many records were rejected so far
+     */
+    long getRejected() {
+
+        return mRejected;
+
+    }
+
+    /**
+     * Waits for room in the queue, but gives up once a worker has failed.
+     */
+    private static void put(BlockingQueue<Entry> queue, Entry entry, AtomicReference<Throwable> failure) {
+
+        try {
+
+            while (!queue.offer(entry, POLL_MS, TimeUnit.MILLISECONDS)) {
+
+                if (failure.get() != null) {
+                    throw new ReadAborted();
+                }
+
+            }
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+            throw new ReadAborted();
+
+        }
+
+    }
+
+    private void read(Consumer<Entry> sink) throws IOException {
+
+        InputStream in = mName.equals("-") ? System.in : new FileInputStream(mName);
+        String lower = mName.toLowerCase(Locale.ROOT);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+
+            if (lower.endsWith(".csv")) {
+                readCsv(reader, sink);
+            } else if (lower.endsWith(".jsonl") || lower.endsWith(".ndjson")) {
+                readJsonLines(reader, sink);
+            } else {
+                readTabbed(reader, sink);
+            }
+
+        } catch (ReadAborted e) {
+
+            // the workers gave up, whatever they threw is what gets reported
+
+        } catch (UncheckedIOException uioe) {
+
+            throw uioe.getCause();
+
+        } finally {
+
+            if (mErrors != null) {
+                mErrors.close();
+                mErrors = null;
+            }
+
+        }
+
+    }
+
+    private void readTabbed(BufferedReader reader, Consumer<Entry> sink) throws IOException {
+
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+
+            mLine++;
+
+            if (!line.isEmpty()) {
+                accept(CardRecord.parse(line), line, sink);
+            }
+
+        }
+
+    }
+
+    private void readJsonLines(BufferedReader reader, Consumer<Entry> sink) throws IOException {
+
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+
+            mLine++;
+
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            CardRecord record;
+
+            try {
+                record = JsonLine.parse(line);
+            } catch (IllegalArgumentException iae) {
+                reject(iae.getMessage(), line);
+                continue;
+            }
+
+            accept(record, line, sink);
+
+        }
+
+    }
+
+    private void readCsv(BufferedReader reader, Consumer<Entry> sink) throws IOException {
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder raw = new StringBuilder();
+        Deque<String> pending = new ArrayDeque<>(); // lines to read again, after a record that was too long
+        int titleColumn = 0;
+        int bottomColumn = 1;
+        boolean first = true;
+
+        long next = 1; // line the next record starts on
+
+        while (true) {
+
+            mLine = next;
+            int lines = readCsvRecord(reader, pending, fields, raw);
+
+            if (lines < 0) {
+                break;
+            }
+
+            if (lines == 0) {
+                next++;
+                reject("Quote not closed within " + MAX_CSV_LINES + " lines or " + MAX_CSV_CHARS + " chars", raw);
+                continue;
+            }
+
+            next += lines;
+
+            if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                continue; // blank line
+            }
+
+            if (first) {
+
+                first = false;
+                int title = indexOfIgnoreCase(fields, "title");
+
+                if (title >= 0) {
+                    titleColumn = title;
+                    bottomColumn = indexOfIgnoreCase(fields, "bottom");
+                    continue;
+                }
+
+            }
+
+            if (titleColumn >= fields.size()) {
+                reject("No title column", raw);
+                continue;
+            }
+
+            String bottom = bottomColumn >= 0 && bottomColumn < fields.size() ? fields.get(bottomColumn) : "";
+            accept(new CardRecord(fields.get(titleColumn), bottom), raw, sink);
+
+        }
+
+    }
+
+    /**
+     * Reads one CSV record, which is more than one line if a quoted field has a line break in it.  A record whose quote
+     * isn't closed by the end of the input, or within MAX_CSV_LINES lines or MAX_CSV_CHARS chars, isn't read: its
+     * first line is left in raw and the lines after that are put back in pending, to be read again.
+     * @param pending lines to read before any more from the reader, first one first
+     * @param fields filled with the fields of the record
+     * @param raw filled with the text of the record, for the error file
+     * @return how many lines the record took, 0 if its quote wasn't closed, -1 at the end of the input
+     */
+    static int readCsvRecord(BufferedReader reader, Deque<String> pending, List<String> fields, StringBuilder raw)
+            throws IOException {
+
+        fields.clear();
+        raw.setLength(0);
+
+        String line = pending.isEmpty() ? reader.readLine() : pending.poll();
+
+        if (line == null) {
+            return -1;
+        }
+
+        int lines = 1;
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+
+        raw.append(line);
+
+        while (true) {
+
+            if (i == line.length()) {
+
+                if (!quoted) {
+                    break;
+                }
+
+                // the quoted field goes on to the next line
+                line = pending.isEmpty() ? reader.readLine() : pending.poll();
+
+                if (line == null || lines == MAX_CSV_LINES || raw.length() + 1 + line.length() > MAX_CSV_CHARS) {
+                    unread(raw, line, pending);
+                    fields.clear();
+                    return 0;
+                }
+
+                lines++;
+                raw.append('\n').append(line);
+                field.append('\n');
+                i = 0;
+                continue;
+
+            }
+
+            char c = line.charAt(i++);
+
+            if (quoted) {
+
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+
+            } else if (c == '"') {
+
+                quoted = true;
+
+            } else if (c == ',') {
+
+                fields.add(field.toString());
+                field.setLength(0);
+
+            } else {
+
+                field.append(c);
+
+            }
+
+        }
+
+        fields.add(field.toString());
+        return lines;
+
+    }
+
+    /**
+     * Puts back the lines of raw after its first, and the line after those, leaving only the first line in raw.
+     * @param next the line read after raw, null at the end of the input
+     */
+    private static void unread(StringBuilder raw, String next, Deque<String> pending) {
+
+        if (next != null) {
+            pending.addFirst(next);
+        }
+
+        int end = raw.length();
+
+        for (int nl = raw.lastIndexOf("\n"); nl >= 0; nl = raw.lastIndexOf("\n", nl - 1)) {
+            pending.addFirst(raw.substring(nl + 1, end));
+            end = nl;
+        }
+
+        raw.setLength(end);
+
+    }
+
+    private static int indexOfIgnoreCase(List<String> fields, String name) {
+
+        for (int i = 0; i < fields.size(); i++) {
+
+            if (fields.get(i).trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+
+        }
+
+        return -1;
+
+    }
+
+    private void accept(CardRecord record, CharSequence raw, Consumer<Entry> sink) throws IOException {
+
+        String problem = record.problem();
+
+        if (problem != null) {
+            reject(problem, raw);
+            return;
+        }
+
+        mAccepted++;
+        sink.accept(new Entry(mAccepted, mLine, record));
+
+    }
+
+    /**
+     * Writes the record to the error file as line number, reason and the record itself, tab separated, with line breaks
+     * in the record written as \n.
+     */
+    private void reject(String reason, CharSequence raw) throws IOException {
+
+        mRejected++;
+
+        if (mErrorFile == null) {
+            return;
+        }
+
+        if (mErrors == null) {
+            mErrors = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mErrorFile), StandardCharsets.UTF_8));
+        }
+
+        mErrors.write(mLine + "\t" + reason + "\t" + raw.toString().replace("\n", "\\n") + "\n");
+
+    }
+
+    /**
+     * Thrown out of a sink to stop reading.
+     */
+    private static final class ReadAborted extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ReadAborted() {
+
+            super(null, null, false, false);
+
+        }
+
+    }
+
+    /**
+     * Just enough of a JSON parser to get the title and bottom members out of an object on a single line.  Other
+     * members are skipped whatever they are.
+     */
+    private static final class JsonLine {
+
+        private final String mText;
+        private int mPos;
+
+        private JsonLine(String text) {
+
+            mText = text;
+
+        }
+
+        /**
+         * @throws IllegalArgumentException if the line is not a JSON object or has no title
+         */
+        static CardRecord parse(String line) {
+
+            JsonLine json = new JsonLine(line);
+            String title = null;
+            String bottom = "";
+
+            json.expect('{');
+
+            if (!json.peek('}')) {
+
+                do {
+
+                    String name = json.string();
+                    json.expect(':');
+
+                    if (name.equals("title") && json.peek('"')) {
+                        title = json.string();
+                    } else if (name.equals("bottom") && json.peek('"')) {
+                        bottom = json.string();
+                    } else {
+                        json.skipValue();
+                    }
+
+                } while (json.next(','));
+
+            }
+
+            json.expect('}');
+            json.skipSpace();
+
+            if (json.mPos != json.mText.length()) {
+                throw new IllegalArgumentException("Text after the JSON object");
+            }
+
+            if (title == null) {
+                throw new IllegalArgumentException("No title string");
+            }
+
+            return new CardRecord(title, bottom);
+
+        }
+
+        private void skipSpace() {
+
+            while (mPos < mText.length() && Character.isWhitespace(mText.charAt(mPos))) {
+                mPos++;
+            }
+
+        }
+
+        private boolean peek(char c) {
+
+            skipSpace();
+            return mPos < mText.length() && mText.charAt(mPos) == c;
+
+        }
+
+        private boolean next(char c) {
+
+            if (peek(c)) {
+                mPos++;
+                return true;
+            }
+
+            return false;
+
+        }
+
+        private void expect(char c) {
+
+            if (!next(c)) {
+                throw new IllegalArgumentException("Bad JSON, expected '" + c + "' at " + (mPos + 1));
+            }
+
+        }
+
+        private String string() {
+
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+
+            while (mPos < mText.length()) {
+
+                char c = mText.charAt(mPos++);
+
+                if (c == '"') {
+                    return sb.toString();
+                }
+
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+
+                if (mPos >= mText.length()) {
+                    break;
+                }
+
+                char e = mText.charAt(mPos++);
+
+                switch (e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (mPos + 4 > mText.length()) {
+                            throw new IllegalArgumentException("Bad JSON, short \\u escape");
+                        }
+                        try {
+                            sb.append((char)Integer.parseInt(mText.substring(mPos, mPos + 4), 16));
+                        } catch (NumberFormatException nfe) {
+                            throw new IllegalArgumentException("Bad JSON, bad \\u escape");
+                        }
+                        mPos += 4;
+                        break;
+                    default: sb.append(e); // \" \\ \/
+                }
+
+            }
+
+            throw new IllegalArgumentException("Bad JSON, unterminated string");
+
+        }
+
+        /**
+         * Skips a value of any kind, strings are parsed so brackets inside of them don't count.
+         */
+        private void skipValue() {
+
+            int depth = 0;
+
+            do {
+
+                skipSpace();
+
+                if (mPos >= mText.length()) {
+                    throw new IllegalArgumentException("Bad JSON, ends in a value");
+                }
+
+                char c = mText.charAt(mPos);
+
+                if (c == '"') {
+
+                    string();
+
+                } else if (c == '{' || c == '[') {
+
+                    depth++;
+                    mPos++;
+
+                } else if (c == '}' || c == ']') {
+
+                    if (depth == 0) {
+                        return; // end of the enclosing object, the value was empty
+                    }
+
+                    depth--;
+                    mPos++;
+
+                } else if (c == ',' || c == ':') {
+
+                    if (depth == 0) {
+                        return;
+                    }
+
+                    mPos++;
+
+                } else {
+
+                    // number, true, false or null
+                    while (mPos < mText.length() && ",:}] \t".indexOf(mText.charAt(mPos)) < 0) {
+                        mPos++;
+                    }
+
+                }
+
+            } while (depth > 0);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.print.PageFormat;
+import java.awt.print.Paper;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Rasterizes whole sheets of cards, imposed as BusinessCardPrint imposes them on paper, to 1 bit images for a RIP,
+ * 600 DPI unless asked otherwise.  A letter sheet at 600 DPI is 5100 x 6600 pixels, 33 MB as gray, so a sheet is never
+ * drawn all at once.  It is cut into bands of rows, which are drawn in parallel, each through the same
+ * BusinessCardPrint.drawPage the printer gets, clipped to the band, with the PRINT RenderProfile.  Each band is drawn
+ * in gray, so the print profile's antialiasing decides which pixels are more than half covered, and then packed to
+ * bits in a direct buffer, which a SheetWriter writes out in order.
+ *
+ * Only so many bands are handed out ahead of the one to be written next, two per thread, so however many sheets there
+ * are, what is resident is that many packed bands, 160 KB each at 600 DPI, and a gray band per thread, 1.3 MB each.
+ *
+ * Sheets are US letter with half inch margins, eight cards to a sheet.
+ *
+ * Usage: SheetRasterizer roster outFile.(pbm|tif) [dpi] [threads]
+ */
+final class SheetRasterizer {
+
+    static final int PRINT_DPI = 600;
+    static final int BAND_ROWS = 256;
+    private static final int BANDS_PER_THREAD = 2; // one being drawn and one drawn, waiting to be written
+    private static final double MARGIN = 36; // 1/72's of an inch
+
+    private static final ThreadLocal<byte[]> sRow = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private final BusinessCardPrint mPrint;
+    private final PageFormat mPageFormat;
+    private final int mDpi;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBandRows;
+
+    /**
+     * @param cards each printed once, in order
+     * @param fitting how the cards get their font size
+     * @param pf the paper and margins
+     * @param dpi resolution of the sheets
+     * @param bandRows how many rows are drawn at a time
+     */
+    SheetRasterizer(List<CardRecord> cards, CardFitting fitting, PageFormat pf, int dpi, int bandRows) {
+
+        mPrint = new BusinessCardPrint(cards, fitting);
+        mPageFormat = pf;
+        mDpi = dpi;
+        mWidth = (int)Math.round(pf.getWidth() * dpi / Supersampler.SCREEN_DPI);
+        mHeight = (int)Math.round(pf.getHeight() * dpi / Supersampler.SCREEN_DPI);
+        mBandRows = bandRows;
+
+    }
+
+    public static void main( String args[] ) {
+
+        // must be set before any AWT class gets loaded
+        System.setProperty("java.awt.headless", "true");
+
+        String usage = "Usage: SheetRasterizer roster outFile.(pbm|tif) [dpi] [threads]";
+
+        if (args.length < 2) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        int dpi = BusinessCardBatch.intArg(args, 2, "dpi", PRINT_DPI, Supersampler.SCREEN_DPI, Supersampler.MAX_DPI,
+                usage);
+        int threads = BusinessCardBatch.intArg(args, 3, "threads", Runtime.getRuntime().availableProcessors(), 1,
+                BusinessCardBatch.MAX_THREADS, usage);
+
+        try {
+
+            File outFile = new File(args[1]);
+            File rejectedFile = new File(outFile.getAbsoluteFile().getParentFile(), BusinessCardBatch.REJECTED_FILE);
+            RosterReader roster = new RosterReader(args[0], rejectedFile);
+            List<CardRecord> cards = roster.readAll();
+
+            long start = System.nanoTime();
+            SheetRasterizer sheets = new SheetRasterizer(cards, CardFitting.forCards(cards), letter(), dpi, BAND_ROWS);
+            int pages = sheets.getPageCount();
+
+            try (SheetWriter out = SheetWriter.open(outFile.toPath(), sheets.mWidth, sheets.mHeight, dpi, pages)) {
+
+                sheets.write(out, threads);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("Rasterized %d cards on %d sheets of %d x %d in %.3f s on %d threads: %.2f sheets/s, %.1f MB%n",
+                        cards.size(), pages, sheets.mWidth, sheets.mHeight, seconds, threads, pages / seconds,
+                        out.size() / 1e6);
+
+            }
+
+            if (roster.getRejected() > 0) {
+                System.out.println("Rejected " + roster.getRejected() + " records, see " + rejectedFile);
+            }
+
+        } catch (IOException | UncheckedIOException | IllegalArgumentException | ExecutionException e) {
+
+            e.printStackTrace();
+            System.exit(2);
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+            System.exit(2);
+
+        }
+
+    }
+
+    /**
+     * @return US letter with half inch margins all round
+     */
+    static PageFormat letter() {
+
+        Paper paper = new Paper();
+        paper.setImageableArea(MARGIN, MARGIN, paper.getWidth() - 2 * MARGIN, paper.getHeight() - 2 * MARGIN);
+
+        PageFormat pf = new PageFormat();
+        pf.setPaper(paper);
+        return pf;
+
+    }
+
+    /**
+     * @return how many sheets it takes for all of the cards
+     */
+    int getPageCount() {
+
+        return mPrint.getPageCount(mPageFormat);
+
+    }
+
+    /**
+     * Draws every sheet, a band at a time on a pool of the given size, and writes the bands in order as they are done.
+     * @param out what the sheets are written to, at this size and resolution
+     * @param threads how many bands are drawn at once
+     * @throws IOException if the sheets can not be written
+     * @throws ExecutionException if a band could not be drawn
+     */
+    void write(SheetWriter out, int threads) throws IOException, InterruptedException, ExecutionException {
+
+        int bandsPerPage = (mHeight + mBandRows - 1) / mBandRows;
+        long bands = (long)getPageCount() * bandsPerPage;
+        int window = threads * BANDS_PER_THREAD;
+
+        Deque<ByteBuffer> free = new ArrayDeque<>();
+        Deque<Future<ByteBuffer>> drawing = new ArrayDeque<>();
+
+        for (int i = 0; i < window; i++) {
+            free.add(ByteBuffer.allocateDirect(mBandRows * out.stride));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+
+            Thread thread = new Thread(r, "sheet-band");
+            thread.setDaemon(true);
+            return thread;
+
+        });
+
+        try {
+
+            long next = 0;
+
+            for (long written = 0; written < bands; written++) {
+
+                // a band's buffer comes back once it is written, so there is always one for each band handed out
+                while (next < bands && drawing.size() < window) {
+
+                    int page = (int)(next / bandsPerPage);
+                    int y0 = (int)(next % bandsPerPage) * mBandRows;
+                    ByteBuffer bits = free.remove();
+
+                    drawing.add(pool.submit(() -> drawBand(page, y0, bits)));
+                    next++;
+
+                }
+
+                ByteBuffer bits = drawing.remove().get();
+                int band = (int)(written % bandsPerPage);
+
+                if (band == 0) {
+                    out.beginPage();
+                }
+
+                out.writeBand(bits, Math.min(mBandRows, mHeight - band * mBandRows));
+
+                if (band == bandsPerPage - 1) {
+                    out.endPage();
+                }
+
+                free.add(bits);
+
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+    }
+
+    /**
+     * Draws the rows of a sheet starting at y0 and packs them into the buffer.
+     * @return the buffer, ready to be written
+     */
+    private ByteBuffer drawBand(int page, int y0, ByteBuffer bits) {
+
+        int rows = Math.min(mBandRows, mHeight - y0);
+
+        RenderTarget band = RenderTarget.forThread(RenderTarget.BAND, mWidth, mBandRows, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = band.graphics;
+        RenderProfile.PRINT.applyTo(g);
+
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, mWidth, rows);
+        g.clipRect(0, 0, mWidth, rows);
+
+        // the same translation for every band, in whole pixels, so glyphs come out the same either side of a band edge
+        double scale = (double)mDpi / Supersampler.SCREEN_DPI;
+        g.translate(0, -y0);
+        g.scale(scale, scale);
+        mPrint.drawPage(g, mPageFormat, page);
+
+        pack(((DataBufferByte)band.image.getRaster().getDataBuffer()).getData(), mWidth, rows, bits);
+        return bits;
+
+    }
+
+    /**
+     * Packs gray rows to bits, 1 for a pixel that is darker than mid gray.
+     * @param gray rows of width pixels
+     * @param bits cleared and filled, ready to be written
+     */
+    private static void pack(byte[] gray, int width, int rows, ByteBuffer bits) {
+
+        int stride = (width + 7) / 8;
+        byte[] row = sRow.get();
+
+        if (row.length < stride) {
+            row = new byte[stride];
+            sRow.set(row);
+        }
+
+        bits.clear();
+
+        int whole = width / 8; // bytes with 8 pixels in them, a row may end in one with fewer
+
+        for (int y = 0; y < rows; y++) {
+
+            int p = y * width;
+
+            for (int x = 0; x < whole; x++) {
+
+                int b = 0;
+
+                // the top bit of a gray pixel is clear when it's darker than mid gray
+                for (int i = 0; i < 8; i++) {
+                    b = b << 1 | (~gray[p++] >> 7 & 1);
+                }
+
+                row[x] = (byte)b;
+
+            }
+
+            if (whole < stride) {
+
+                int b = 0;
+
+                for (int i = whole * 8; i < width; i++) {
+                    b = b << 1 | (~gray[p++] >> 7 & 1);
+                }
+
+                row[whole] = (byte)(b << (8 - width % 8)); // padding is white
+
+            }
+
+            bits.put(row, 0, stride);
+
+        }
+
+        bits.flip();
+
+    }
+
+}
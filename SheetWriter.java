@@ -0,0 +1,333 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Writes 1 bit sheets a band of rows at a time, straight to a FileChannel, so a file of many sheets is written without
+ * ever holding a whole sheet.  Rows are packed 8 pixels to a byte, most significant bit first, 1 for black, and each
+ * row starts on a byte.
+ *
+ * Two formats, picked by the file name:
+ * <ul>.pbm, raw PBM, one image after another, which is how netpbm keeps many pages in a file.
+ * <ul>.tif or .tiff, an uncompressed bilevel TIFF with a page per sheet.  Each band is a strip, and the directory of a
+ * page comes after its strips, when where they went is known, so nothing is written twice apart from the 4 byte link
+ * to the next directory.  A TIFF can't be bigger than 4 GB, about 950 letter sheets at 600 DPI.
+ *
+ * Headers go through a small direct buffer of the writer's own, bands are written from whatever buffer they come in.
+ */
+abstract class SheetWriter implements Closeable {
+
+    final int width;
+    final int height;
+    final int stride; // bytes per row
+
+    private final FileChannel mChannel;
+    private long mPosition;
+
+    private SheetWriter(FileChannel channel, int width, int height) {
+
+        this.width = width;
+        this.height = height;
+        this.stride = (width + 7) / 8;
+        mChannel = channel;
+
+    }
+
+    /**
+     * Creates the file, replacing any that is there.
+     * @param file ends in .pbm, .tif or .tiff
+     * @param width of every sheet, in pixels
+     * @param height of every sheet, in pixels
+     * @param dpi resolution the sheets are at
+     * @param pageCount how many sheets will be written
+     * @return a writer for that format
+     * @throws IOException if the file can not be created
+     * @throws IllegalArgumentException if the file name is not for a format there is a writer for
+     */
+    static SheetWriter open(Path file, int width, int height, int dpi, int pageCount) throws IOException {
+
+        String name = file.getFileName().toString().toLowerCase();
+
+        if (!name.endsWith(".pbm") && !name.endsWith(".tif") && !name.endsWith(".tiff")) {
+            throw new IllegalArgumentException("Don't know how to write sheets to " + file + ", must be .pbm, .tif or .tiff");
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+
+            return name.endsWith(".pbm") ? new Pbm(channel, width, height)
+                    : new Tiff(channel, width, height, dpi, pageCount);
+
+        } catch (IOException e) {
+
+            channel.close();
+            throw e;
+
+        }
+
+    }
+
+    /**
+     * Starts the next sheet.
+     */
+    abstract void beginPage() throws IOException;
+
+    /**
+     * Writes the next rows of the sheet.
+     * @param bits rowCount rows of stride bytes, from the buffer's position, which is moved to its limit
+     * @param rowCount how many rows
+     */
+    abstract void writeBand(ByteBuffer bits, int rowCount) throws IOException;
+
+    /**
+     * Finishes the sheet, which has to have had height rows written.
+     */
+    abstract void endPage() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+
+        mChannel.close();
+
+    }
+
+    /**
+     * @return how many bytes have been written
+     */
+    long size() {
+
+        return mPosition;
+
+    }
+
+    void write(ByteBuffer data) throws IOException {
+
+        while (data.hasRemaining()) {
+            mPosition += mChannel.write(data);
+        }
+
+    }
+
+    void writeAt(ByteBuffer data, long position) throws IOException {
+
+        while (data.hasRemaining()) {
+            position += mChannel.write(data, position);
+        }
+
+    }
+
+    /**
+     * Raw PBM, a header and then the rows of each sheet.
+     */
+    private static final class Pbm extends SheetWriter {
+
+        private final ByteBuffer mHeader;
+
+        Pbm(FileChannel channel, int width, int height) {
+
+            super(channel, width, height);
+
+            byte[] header = ("P4\n" + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII);
+            mHeader = ByteBuffer.allocateDirect(header.length).put(header);
+
+        }
+
+        @Override
+        void beginPage() throws IOException {
+
+            write(mHeader.flip());
+
+        }
+
+        @Override
+        void writeBand(ByteBuffer bits, int rowCount) throws IOException {
+
+            write(bits);
+
+        }
+
+        @Override
+        void endPage() {
+        }
+
+    }
+
+    /**
+     * Little endian TIFF, each sheet's strips followed by its directory.
+     */
+    private static final class Tiff extends SheetWriter {
+
+        private static final int ENTRIES = 13;
+        private static final int SHORT = 3;
+        private static final int LONG = 4;
+        private static final int RATIONAL = 5;
+
+        private final int mDpi;
+        private final int mPageCount;
+        private ByteBuffer mScratch = ByteBuffer.allocateDirect(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        private long mLink = 4; // where the offset of the next directory goes
+        private int mPage;
+        private long[] mStripOffsets = new long[64];
+        private long[] mStripCounts = new long[64];
+        private int mStrips;
+        private int mRowsPerStrip;
+
+        Tiff(FileChannel channel, int width, int height, int dpi, int pageCount) throws IOException {
+
+            super(channel, width, height);
+            mDpi = dpi;
+            mPageCount = pageCount;
+
+            mScratch.clear();
+            mScratch.put((byte)'I').put((byte)'I').putShort((short)42).putInt(0); // no pages yet
+            write(mScratch.flip());
+
+        }
+
+        @Override
+        void beginPage() {
+
+            mStrips = 0;
+            mRowsPerStrip = 0;
+
+        }
+
+        @Override
+        void writeBand(ByteBuffer bits, int rowCount) throws IOException {
+
+            if (mStrips == mStripOffsets.length) {
+                mStripOffsets = Arrays.copyOf(mStripOffsets, mStrips * 2);
+                mStripCounts = Arrays.copyOf(mStripCounts, mStrips * 2);
+            }
+
+            // every strip but the last has to have the same number of rows
+            mRowsPerStrip = Math.max(mRowsPerStrip, rowCount);
+            mStripOffsets[mStrips] = size();
+            mStripCounts[mStrips] = bits.remaining();
+            mStrips++;
+
+            write(bits);
+
+        }
+
+        @Override
+        void endPage() throws IOException {
+
+            // values that don't fit in an entry go before the directory, everything on a word boundary
+            int extra = (mStrips > 1 ? 8 * mStrips : 0) + 16;
+            ByteBuffer out = scratch(1 + extra + 2 + 12 * ENTRIES + 4);
+
+            if (size() % 2 != 0) {
+                out.put((byte)0);
+            }
+
+            long base = size() + out.position();
+            long offsets = base;
+            long counts = offsets + (mStrips > 1 ? 4 * mStrips : 0);
+            long resolution = counts + (mStrips > 1 ? 4 * mStrips : 0);
+            long directory = resolution + 16;
+
+            if (directory + 2 + 12 * ENTRIES + 4 > 0xffffffffL) {
+                throw new IOException("A TIFF can't be bigger than 4 GB, write fewer sheets to a file or use PBM");
+            }
+
+            if (mStrips > 1) {
+
+                for (int i = 0; i < mStrips; i++) {
+                    out.putInt((int)mStripOffsets[i]);
+                }
+
+                for (int i = 0; i < mStrips; i++) {
+                    out.putInt((int)mStripCounts[i]);
+                }
+
+            }
+
+            out.putInt(mDpi).putInt(1).putInt(mDpi).putInt(1);
+
+            out.putShort((short)ENTRIES);
+            entry(out, 254, LONG, 1, 2); // NewSubfileType, a page of many
+            entry(out, 256, LONG, 1, width); // ImageWidth
+            entry(out, 257, LONG, 1, height); // ImageLength
+            entry(out, 258, SHORT, 1, 1); // BitsPerSample
+            entry(out, 259, SHORT, 1, 1); // Compression, none
+            entry(out, 262, SHORT, 1, 0); // PhotometricInterpretation, WhiteIsZero so 1 is black
+            entry(out, 273, LONG, mStrips, mStrips > 1 ? offsets : mStripOffsets[0]); // StripOffsets
+            entry(out, 277, SHORT, 1, 1); // SamplesPerPixel
+            entry(out, 278, LONG, 1, mRowsPerStrip); // RowsPerStrip
+            entry(out, 279, LONG, mStrips, mStrips > 1 ? counts : mStripCounts[0]); // StripByteCounts
+            entry(out, 282, RATIONAL, 1, resolution); // XResolution
+            entry(out, 283, RATIONAL, 1, resolution + 8); // YResolution
+            out.putShort((short)297).putShort((short)SHORT).putInt(2) // PageNumber, this one and how many
+                    .putShort((short)mPage).putShort((short)mPageCount);
+            out.putInt(0); // the next directory, if there is one, is linked in when it is written
+
+            write(out.flip());
+
+            ByteBuffer link = scratch(4).putInt((int)directory).flip();
+            writeAt(link, mLink);
+
+            mLink = directory + 2 + 12 * ENTRIES;
+            mPage++;
+
+        }
+
+        private static void entry(ByteBuffer out, int tag, int type, int count, long value) {
+
+            out.putShort((short)tag).putShort((short)type).putInt(count);
+
+            if (type == SHORT && count == 1) {
+                out.putShort((short)value).putShort((short)0);
+            } else {
+                out.putInt((int)value);
+            }
+
+        }
+
+        /**
+         * @return the scratch buffer, cleared, with room for at least this many bytes
+         */
+        private ByteBuffer scratch(int bytes) {
+
+            if (mScratch.capacity() < bytes) {
+                mScratch = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            mScratch.clear();
+            return mScratch;
+
+        }
+
+    }
+
+}
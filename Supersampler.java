@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Print quality card images.  The card is drawn several times bigger than the target resolution and then scaled down
+ * by averaging each block of pixels, which is what makes small text look good where scaling with Java 2D doesn't.
+ *
+ * The card is drawn through a scaled Graphics2D using the same 72 DPI layout as the screen, so a 600 DPI card looks
+ * just like the preview only sharper, lines and markers included.  The layout is worked out with the unscaled
+ * CardLayout.DEFAULT_FRC, not the scaled graphics' own, whose device space metrics would fit different sizes.
+ *
+ * Scaling down is an integer factor, so a plain box filter averages exactly the area of each target pixel.  The target
+ * rows are split into bands that are averaged in parallel (on the fork-join pool of the caller if there is one), and
+ * each thread keeps one row of sums for all the bands it does, so nothing is allocated per row or band.
+ *
+ * Both the supersampled image and the card are the calling thread's RenderTargets, so rendering card after card
+ * allocates no images.
+ */
+final class Supersampler {
+
+    static final int SCREEN_DPI = 72; // what BC_WIDTH and BC_HEIGHT are in
+    static final int MAX_DPI = 1200; // finest a card is rendered at
+    private static final int MIN_RENDER_DPI = 1200; // draw at least this fine before scaling down
+    private static final int BAND_ROWS = 32; // target rows scaled down by one task
+
+    private static final ThreadLocal<int[]> sSums = ThreadLocal.withInitial(() -> new int[0]);
+
+    private Supersampler() {
+    }
+
+    /**
+     * @return how many times bigger to draw a card for the target resolution
+     */
+    static int factorFor(int dpi) {
+
+        return Math.max(2, (MIN_RENDER_DPI + dpi - 1) / dpi);
+
+    }
+
+    /**
+     * Renders a card at the given resolution.
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     * @param dpi target resolution, 300 or 600 for print
+     * @return 8 bit gray image of the card at that resolution, which is reused by the next card the calling thread
+     * renders, so encode it before then
+     */
+    static BufferedImage render(String titleText, String bottomText, int dpi) {
+
+        return render(null, titleText, bottomText, dpi);
+
+    }
+
+    /**
+     * Same as above, with the layout from a CardFitting.
+     * @param fitting where the layout comes from, null for the usual CardLayout.get
+     */
+    static BufferedImage render(CardFitting fitting, String titleText, String bottomText, int dpi) {
+
+        return render(fitting, titleText, bottomText, dpi, null);
+
+    }
+
+    /**
+     * Same as above, drawing in targets the caller keeps rather than the calling thread's.
+     * @param targets RenderTarget.SLOTS long, see RenderTarget.forSlot, null for the calling thread's
+     * @return 8 bit gray image of the card, in the CARD target
+     */
+    static BufferedImage render(CardFitting fitting, String titleText, String bottomText, int dpi,
+                                RenderTarget[] targets) {
+
+        int factor = factorFor(dpi);
+        int width = BusinessCardCanvas.BC_WIDTH * dpi / SCREEN_DPI;
+        int height = BusinessCardCanvas.BC_HEIGHT * dpi / SCREEN_DPI;
+
+        RenderTarget big = target(targets, RenderTarget.SUPERSAMPLED, width * factor, height * factor);
+        big.graphics.transform(renderTransform(dpi));
+
+        Dimension bcDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+        FontRenderContext frc = CardLayout.DEFAULT_FRC; // laid out at 72 DPI, only drawn scaled
+        CardLayout layout = fitting == null ? CardLayout.get(titleText.length(), bottomText.length(), bcDim, frc)
+                : fitting.layout(titleText.length(), bottomText.length(), bcDim, frc);
+
+        BusinessCardCanvas.paintBusinessCard(big.graphics, layout, titleText, bottomText, false);
+
+        BufferedImage card = target(targets, RenderTarget.CARD, width, height).image;
+        downscale(big.image, card, factor);
+        return card;
+
+    }
+
+    private static RenderTarget target(RenderTarget[] targets, int slot, int width, int height) {
+
+        return targets == null ? RenderTarget.forThread(slot, width, height, BufferedImage.TYPE_BYTE_GRAY)
+                : RenderTarget.forSlot(targets, slot, width, height, BufferedImage.TYPE_BYTE_GRAY);
+
+    }
+
+    /**
+     * @return the transform from the 72 DPI card to the supersampled image a card at this resolution is drawn in
+     */
+    static AffineTransform renderTransform(int dpi) {
+
+        int factor = factorFor(dpi);
+        int width = BusinessCardCanvas.BC_WIDTH * dpi / SCREEN_DPI;
+        int height = BusinessCardCanvas.BC_HEIGHT * dpi / SCREEN_DPI;
+
+        return AffineTransform.getScaleInstance((double)width * factor / BusinessCardCanvas.BC_WIDTH,
+                (double)height * factor / BusinessCardCanvas.BC_HEIGHT);
+
+    }
+
+    /**
+     * Scales a gray image down by an integer factor, each target pixel the average of a factor by factor block.
+     * @param src TYPE_BYTE_GRAY image, at least factor times as big as dst
+     * @param dst TYPE_BYTE_GRAY image to fill in
+     * @param factor how many source pixels across (and down) per target pixel
+     */
+    static void downscale(BufferedImage src, BufferedImage dst, int factor) {
+
+        byte[] in = ((DataBufferByte)src.getRaster().getDataBuffer()).getData();
+        byte[] out = ((DataBufferByte)dst.getRaster().getDataBuffer()).getData();
+        int srcStride = src.getWidth();
+        int dstWidth = dst.getWidth();
+        int dstHeight = dst.getHeight();
+        int bands = (dstHeight + BAND_ROWS - 1) / BAND_ROWS;
+
+        IntStream.range(0, bands).parallel().forEach(band -> downscaleBand(in, srcStride, out, dstWidth,
+                band * BAND_ROWS, Math.min(dstHeight, (band + 1) * BAND_ROWS), factor));
+
+    }
+
+    private static void downscaleBand(byte[] in, int srcStride, byte[] out, int dstWidth, int y0, int y1, int factor) {
+
+        int[] sums = sSums.get();
+
+        if (sums.length < dstWidth) {
+            sums = new int[dstWidth];
+            sSums.set(sums);
+        }
+
+        int area = factor * factor;
+        int half = area / 2; // for rounding
+
+        for (int y = y0; y < y1; y++) {
+
+            Arrays.fill(sums, 0, dstWidth, 0);
+
+            for (int sy = 0; sy < factor; sy++) {
+
+                int row = (y * factor + sy) * srcStride;
+
+                for (int x = 0, sx = row; x < dstWidth; x++) {
+
+                    int sum = 0;
+
+                    for (int i = 0; i < factor; i++, sx++) {
+                        sum += in[sx] & 0xff;
+                    }
+
+                    sums[x] += sum;
+
+                }
+
+            }
+
+            int dstRow = y * dstWidth;
+
+            for (int x = 0; x < dstWidth; x++) {
+                out[dstRow + x] = (byte)((sums[x] + half) / area);
+            }
+
+        }
+
+    }
+
+}
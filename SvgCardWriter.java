@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * Writes a business card as SVG, the same lines, punches and text paintBusinessCard draws but without rasterizing
+ * anything.  One unit is one point (1/72 of an inch), same as the pixels of a 72 DPI card image, and the document
+ * states its size in inches so it prints at the right size.
+ *
+ * The SVG is written straight to the Writer as the layout is replayed, nothing is built up in memory.
+ */
+final class SvgCardWriter {
+
+    private SvgCardWriter() {
+    }
+
+    /**
+     * Writes the card as a standalone SVG document.  The writer is not closed.
+     * @param layout where everything goes
+     * @param titleText top line, the one that gets punched
+     * @param bottomText optional bottom line
+     * @param out where to write the SVG
+     * @throws IOException if the writer fails
+     */
+    static void write(CardLayout layout, String titleText, String bottomText, Writer out) throws IOException {
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + layout.width / 72.0 + "in\" height=\""
+                + layout.height / 72.0 + "in\" viewBox=\"0 0 " + layout.width + " " + layout.height + "\">\n");
+
+        out.write("<rect width=\"" + layout.width + "\" height=\"" + layout.height + "\" fill=\"white\"/>\n");
+
+        // Graphics.drawLine fills the pixels the line passes through, so stroke through the pixel centers and square
+        // off the ends to cover the end pixels too.
+        out.write("<g stroke=\"black\" stroke-width=\"1\" stroke-linecap=\"square\" fill=\"none\">\n");
+
+        int[] lines = layout.lines;
+
+        for (int i = 0; i < lines.length; i += 4) {
+            out.write("<line x1=\"" + (lines[i] + 0.5) + "\" y1=\"" + (lines[i+1] + 0.5) + "\" x2=\"" + (lines[i+2] + 0.5)
+                    + "\" y2=\"" + (lines[i+3] + 0.5) + "\"/>\n");
+        }
+
+        out.write("</g>\n<g fill=\"black\">\n");
+
+        for (int col = 0; col < layout.titleLen; col++) {
+
+            char c = titleText.charAt(col);
+
+            for (int bit = 0; bit < CardLayout.PUNCH_ROWS; bit++) {
+
+                if ((c & (1 << bit)) != 0) {
+                    out.write("<rect x=\"" + layout.punchX[col] + "\" y=\"" + layout.punchY[bit] + "\" width=\""
+                            + layout.punchWidth + "\" height=\"" + layout.punchHeight + "\"/>\n");
+                }
+
+            }
+
+        }
+
+        out.write("</g>\n<g font-family=\"FreeMono, monospace\" font-size=\"" + layout.fit.ptSize
+                + "\" fill=\"black\" xml:space=\"preserve\">\n");
+
+        for (int col = 0; col < layout.titleLen; col++) {
+            out.write("<text x=\"" + layout.columnX[col] + "\" y=\"" + layout.titleBaseline + "\">");
+            escape(titleText.charAt(col), out);
+            out.write("</text>\n");
+        }
+
+        if (layout.bottomLen > 0) {
+
+            out.write("<text x=\"" + layout.bottomX + "\" y=\"" + layout.bottomBaseline + "\">");
+
+            for (int i = 0; i < bottomText.length(); i++) {
+                escape(bottomText.charAt(i), out);
+            }
+
+            out.write("</text>\n");
+
+        }
+
+        out.write("</g>\n</svg>\n");
+
+    }
+
+    /**
+     * Writes the char as XML text.  Control chars can't be in an XML document at all, so they are left out.
+     */
+    private static void escape(char c, Writer out) throws IOException {
+
+        switch (c) {
+
+            case '&':
+                out.write("&amp;");
+                break;
+
+            case '<':
+                out.write("&lt;");
+                break;
+
+            case '>':
+                out.write("&gt;");
+                break;
+
+            default:
+                if (c >= 0x20) {
+                    out.write(c);
+                }
+
+        }
+
+    }
+
+}
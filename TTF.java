@@ -17,8 +17,18 @@
 package org.mirly.businesscard;
 
 import java.awt.*;
-import java.io.File;
+import java.awt.geom.AffineTransform;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * @author David Mirly
@@ -34,23 +44,64 @@ import java.io.IOException;
  *
  * This font was selected because it demonstrated reliable fidelity of characters at small sizes.
  *
+ * The font is looked for on the classpath first, so it can ship inside the jar, and only then as a file.  Derived
+ * sizes are cached since the same handful of sizes gets asked for on every paint.  Loading and deriving show up in
+ * RenderMetrics and as CardEvents.
+ *
+ * Loading the font only reads its bytes and its metrics tables (see TrueTypeMetrics), which is all laying out a card
+ * takes.  The java.awt.Font, and with it the AWT font system, is only created the first time a font is asked for to
+ * draw with.
+ *
  * NOTE: It would be nice to not have to package a font and instead draw an image larger than a business card
  * and scale it down but there isn't an algorithm I found in java (including Java 2D) that does a decent job
  * with the text, although it is possible to get good results outside of java.  If the effort is warranted/needed
- * then it should be possible to implement a suitable scaling algorithm.
+ * then it should be possible to implement a suitable scaling algorithm.  Supersampler now does this for print
+ * resolutions with its own area averaging, but the font is still needed for the screen and for vector output.
  *
  */
 class TTF {
 
-    private static final Font TTF;
+    private static final String FONT_FILE = "FreeMono.ttf";
+    private static final int MAX_CACHED_FONTS = 64; // distinct size/transform combinations kept around
+
+    private static final ByteBuffer FONT_DATA;
+    private static final TrueTypeMetrics METRICS;
+
+    private static String sFontSource; // where the font was loaded from, for the instrumentation
+
+    // derived fonts, least recently used first
+    private static final Map<FontKey, Font> sDerived = new LinkedHashMap<FontKey, Font>(16, 0.75f, true) {
+
+        protected boolean removeEldestEntry(Map.Entry<FontKey, Font> eldest) {
+            return size() > MAX_CACHED_FONTS;
+        }
+
+    };
 
     static {
 
+        long start = System.nanoTime();
+        CardEvents.FontLoad event = null;
+
+        if (CardEvents.enabled()) {
+            event = new CardEvents.FontLoad();
+            event.begin();
+        }
+
         try {
 
-            TTF = Font.createFont(Font.TRUETYPE_FONT, new File("FreeMono.ttf"));
+            FONT_DATA = loadFontData();
+            METRICS = TrueTypeMetrics.read(FONT_DATA);
 
-        } catch (IOException | FontFormatException e) {
+            RenderMetrics.FONT_LOAD.stop(start);
+
+            if (event != null) {
+                event.source = sFontSource;
+                event.bytes = FONT_DATA.capacity();
+                event.commit();
+            }
+
+        } catch (IOException | IllegalArgumentException e) {
 
             e.printStackTrace();
             throw new RuntimeException("Could not load FreeMono TTF.");
@@ -59,9 +110,212 @@ class TTF {
 
     }
 
+    /**
+     * The AWT font, created the first time this class is used.
+     */
+    private static final class AwtFont {
+
+        static final Font TTF;
+
+        static {
+
+            long start = System.nanoTime();
+
+            try {
+
+                TTF = Font.createFont(Font.TRUETYPE_FONT, new ByteBufferInputStream(FONT_DATA.duplicate()));
+                RenderMetrics.FONT_CREATE.stop(start);
+
+            } catch (IOException | FontFormatException e) {
+
+                e.printStackTrace();
+                throw new RuntimeException("Could not create FreeMono TTF.");
+
+            }
+
+        }
+
+    }
+
     public static Font getFont(float ptsize) {
 
-        return TTF.deriveFont(ptsize);
+        return getFont(ptsize, null);
+
+    }
+
+    /**
+     * Gets the font at the given size with the given transform applied.  Fonts are derived once and then shared, so
+     * it is fine to call this on every paint and from any number of threads.
+     * @param ptsize point size
+     * @param tx transform to apply to the font, null for none
+     * @return the font
+     */
+    public static Font getFont(float ptsize, AffineTransform tx) {
+
+        FontKey key = new FontKey(ptsize, tx);
+
+        synchronized (sDerived) {
+
+            Font f = sDerived.get(key);
+
+            if (f == null) {
+
+                CardEvents.FontDerive event = null;
+
+                if (CardEvents.enabled()) {
+                    event = new CardEvents.FontDerive();
+                    event.begin();
+                }
+
+                f = AwtFont.TTF.deriveFont(ptsize);
+
+                if (key.tx != null) {
+                    f = f.deriveFont(key.tx);
+                }
+
+                sDerived.put(key, f);
+                RenderMetrics.FONT_DERIVED.increment();
+
+                if (event != null) {
+                    event.pointSize = ptsize;
+                    event.transformed = key.tx != null;
+                    event.commit();
+                }
+
+            }
+
+            return f;
+
+        }
+
+    }
+
+    /**
+     * @return the metrics of FreeMono.ttf, which don't need AWT
+     */
+    static TrueTypeMetrics getMetrics() {
+
+        return METRICS;
+
+    }
+
+    /**
+     * @return the raw bytes of FreeMono.ttf, read only
+     */
+    static ByteBuffer getFontData() {
+
+        return FONT_DATA.asReadOnlyBuffer();
+
+    }
+
+    /**
+     * Finds FreeMono.ttf on the classpath, next to this class or at the root, so it can be packaged in the jar.
+     * Failing that, the file named by the businesscard.font system property (or FreeMono.ttf in the current directory)
+     * is memory mapped.
+     */
+    private static ByteBuffer loadFontData() throws IOException {
+
+        InputStream in = TTF.class.getResourceAsStream(FONT_FILE);
+
+        if (in == null) {
+            in = TTF.class.getResourceAsStream("/" + FONT_FILE);
+        }
+
+        if (in != null) {
+
+            sFontSource = "classpath";
+
+            try (InputStream res = in) {
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+                byte[] buf = new byte[8192];
+                int n;
+
+                while ((n = res.read(buf)) > 0) {
+                    bytes.write(buf, 0, n);
+                }
+
+                return ByteBuffer.wrap(bytes.toByteArray());
+
+            }
+
+        }
+
+        Path path = Paths.get(System.getProperty("businesscard.font", FONT_FILE));
+        sFontSource = path.toAbsolutePath().toString();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        }
+
+    }
+
+    /**
+     * Cache key for a derived font.
+     */
+    private static final class FontKey {
+
+        final float ptsize;
+        final AffineTransform tx;
+
+        FontKey(float ptsize, AffineTransform tx) {
+
+            this.ptsize = ptsize;
+            this.tx = (tx == null || tx.isIdentity()) ? null : new AffineTransform(tx); // copy, the caller's can change
+
+        }
+
+        public boolean equals(Object o) {
+
+            if (!(o instanceof FontKey)) {
+                return false;
+            }
+
+            FontKey other = (FontKey)o;
+            return Float.floatToIntBits(ptsize) == Float.floatToIntBits(other.ptsize) && Objects.equals(tx, other.tx);
+
+        }
+
+        public int hashCode() {
+
+            return 31 * Float.floatToIntBits(ptsize) + Objects.hashCode(tx);
+
+        }
+
+    }
+
+    /**
+     * Font.createFont wants a stream, this reads one straight out of the (possibly mapped) font buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+
+            mBuffer = buffer;
+
+        }
+
+        public int read() {
+
+            return mBuffer.hasRemaining() ? (mBuffer.get() & 0xff) : -1;
+
+        }
+
+        public int read(byte[] b, int off, int len) {
+
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+
+            int n = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, n);
+            return n;
+
+        }
 
     }
 
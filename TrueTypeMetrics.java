@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import java.awt.geom.AffineTransform;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @version 1.0
+ * @since 10/17/26
+ *
+ * The font wide metrics of a TrueType font, read straight out of its head, hhea, hmtx and OS/2 tables.  Fitting a card
+ * only needs the line metrics and the widest char, and getting those from a java.awt.Font means creating the font,
+ * which starts up the whole AWT font system (hundreds of milliseconds, and not there at all in some headless and
+ * native image setups).  Reading a few table fields takes microseconds.
+ *
+ * The numbers are the same as Font.getLineMetrics and Font.getMaxCharBounds give, to the last bit, so a card laid out
+ * from these is the same card.  That means doing the sums the way the JDK's FreeType scaler does: sizes are truncated to
+ * 26.6 fixed point, scaled with FreeType's 16.16 fixed point scale, below 1pt worked out at 1pt and scaled down, and
+ * the max advance is rounded to whole device pixels (which is why it depends on the FontRenderContext transform and the
+ * line metrics don't).  Only transforms that scale both ways alike are handled like that, see supports().
+ */
+final class TrueTypeMetrics {
+
+    private final int mUnitsPerEm;
+    private final int mAscender; // font units, up is positive
+    private final int mDescender; // font units, negative below the baseline
+    private final int mHeight; // font units, baseline to baseline
+    private final int mMaxAdvance; // font units
+
+    private TrueTypeMetrics(int unitsPerEm, int ascender, int descender, int height, int maxAdvance) {
+
+        mUnitsPerEm = unitsPerEm;
+        mAscender = ascender;
+        mDescender = descender;
+        mHeight = height;
+        mMaxAdvance = maxAdvance;
+
+    }
+
+    /**
+     * Reads the metrics tables of a TrueType font.
+     * @param font the whole font file, the buffer's position is not changed
+     * @return the metrics
+     * @throws IllegalArgumentException if the font is not a TrueType font or is missing a table
+     */
+    static TrueTypeMetrics read(ByteBuffer font) {
+
+        ByteBuffer data = font.duplicate().order(ByteOrder.BIG_ENDIAN);
+        data.position(0);
+
+        int head = table(data, "head");
+        int hhea = table(data, "hhea");
+        int hmtx = table(data, "hmtx");
+        int os2 = findTable(data, "OS/2");
+
+        int unitsPerEm = data.getChar(head + 18);
+        int ascender = data.getShort(hhea + 4);
+        int descender = data.getShort(hhea + 6);
+        int height = ascender - descender + data.getShort(hhea + 8);
+        int maxAdvance = data.getChar(hhea + 10);
+
+        // like FreeType, fall back on the OS/2 metrics when hhea has none
+        if (ascender == 0 && descender == 0 && os2 >= 0) {
+
+            int typoAscender = data.getShort(os2 + 68);
+            int typoDescender = data.getShort(os2 + 70);
+
+            if (typoAscender != 0 || typoDescender != 0) {
+
+                ascender = typoAscender;
+                descender = typoDescender;
+                height = ascender - descender + data.getShort(os2 + 72);
+
+            } else {
+
+                ascender = data.getShort(os2 + 74);
+                descender = -data.getShort(os2 + 76);
+                height = ascender - descender;
+
+            }
+
+        }
+
+        // and if hhea doesn't have the widest advance, find it in hmtx
+        if (maxAdvance == 0) {
+
+            int metrics = data.getChar(hhea + 34);
+
+            for (int i = 0; i < metrics; i++) {
+                maxAdvance = Math.max(maxAdvance, data.getChar(hmtx + 4 * i));
+            }
+
+        }
+
+        if (unitsPerEm == 0) {
+            throw new IllegalArgumentException("Font has no units per em");
+        }
+
+        return new TrueTypeMetrics(unitsPerEm, ascender, descender, height, maxAdvance);
+
+    }
+
+    /**
+     * @return ascent, descent and leading, as Font.getLineMetrics has them for the font at this size, whatever the
+     * FontRenderContext
+     */
+    float[] lineMetrics(float ptSize) {
+
+        double size = ptSize < 1 ? 1 : ptSize; // the scaler doesn't go below 1pt, the rest is left to the transform
+        long yScale = divFix(toF26Dot6(size), mUnitsPerEm);
+        float ascent = -mulFixShift6(mAscender, yScale);
+        float descent = -mulFixShift6(mDescender, yScale);
+        float leading = mulFixShift6(mHeight, yScale) + ascent - descent;
+        float scale = toFixed(ptSize / size) / 65536f;
+
+        return new float[] { -ascent * scale, descent * scale, leading * scale };
+
+    }
+
+    /**
+     * @param ptSize point size
+     * @param tx the transform of the FontRenderContext, see supports()
+     * @return the width of the widest char, as Font.getMaxCharBounds has it
+     */
+    double maxCharWidth(float ptSize, AffineTransform tx) {
+
+        double scale = tx == null ? 1 : tx.getScaleX();
+        double device = ptSize * scale; // the size in device pixels
+        double size = device < 1 ? 1 : device;
+        long xScale = divFix(toF26Dot6(size), mUnitsPerEm);
+        long advance = (mulFix(mMaxAdvance, xScale) + 32) & ~63; // rounded to a whole pixel
+        float width = (float)(advance / 64.0) * (toFixed((float)device / size) / 65536f);
+
+        // back from device to user space
+        return scale == 1 ? width : (float)(width * (1.0 / scale));
+
+    }
+
+    /**
+     * @return whether the metrics for a FontRenderContext with this transform can be worked out here, which they can for
+     * no transform or one that scales x and y by the same amount
+     */
+    static boolean supports(AffineTransform tx) {
+
+        return tx == null || tx.isIdentity() || (tx.getShearX() == 0 && tx.getShearY() == 0 && tx.getScaleX() > 0
+                && tx.getScaleX() == tx.getScaleY());
+
+    }
+
+    /**
+     * @return where the table starts
+     * @throws IllegalArgumentException if there is no such table
+     */
+    private static int table(ByteBuffer data, String tag) {
+
+        int offset = findTable(data, tag);
+
+        if (offset < 0) {
+            throw new IllegalArgumentException("Font has no " + tag + " table");
+        }
+
+        return offset;
+
+    }
+
+    /**
+     * Looks the table up in the table directory, which follows the 12 byte offset table.
+     * @return where the table starts, -1 if there is no such table
+     */
+    private static int findTable(ByteBuffer data, String tag) {
+
+        int wanted = ByteBuffer.wrap(tag.getBytes(StandardCharsets.US_ASCII)).getInt();
+        int tables = data.getChar(4);
+
+        for (int i = 0; i < tables; i++) {
+
+            int entry = 12 + 16 * i;
+
+            if (data.getInt(entry) == wanted) {
+                return data.getInt(entry + 8);
+            }
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Like the JDK's FloatToF26Dot6, truncates.
+     */
+    private static long toF26Dot6(double size) {
+
+        return (long)(size * 64);
+
+    }
+
+    /**
+     * Like the JDK's FloatToFTFixed, truncates, so a scale a hair under 1 comes out as 65535.
+     */
+    private static long toFixed(double value) {
+
+        return (long)(value * 65536f);
+
+    }
+
+    /**
+     * FreeType's FT_DivFix, a / b in 16.16 rounded, for positive a and b.
+     */
+    private static long divFix(long a, long b) {
+
+        return ((a << 16) + (b >> 1)) / b;
+
+    }
+
+    /**
+     * FreeType's FT_MulFix, a * b / 65536 rounded half away from zero.
+     */
+    private static long mulFix(long a, long b) {
+
+        long product = a * b;
+        long rounded = (Math.abs(product) + 0x8000) >> 16;
+        return product < 0 ? -rounded : rounded;
+
+    }
+
+    /**
+     * The JDK scaler's FT_MulFixFloatShift6, font units times a 16.16 scale to pixels, in float.
+     */
+    private static float mulFixShift6(long units, long scale) {
+
+        return (float)((double)((float)units * (float)scale) / 65536.0 / 64.0);
+
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+/**
+ * Card text of a few typical lengths, shared by the benchmarks.
+ */
+final class Cards {
+
+    private Cards() {
+    }
+
+    static String title(String length) {
+
+        switch (length) {
+            case "short":
+                return "me@mirly.org";
+            case "medium":
+                return "david.mirly@example.com";
+            default:
+                return "firstname.lastname.department@example.com";
+        }
+
+    }
+
+    static String bottom(String length) {
+
+        switch (length) {
+            case "short":
+                return "";
+            case "medium":
+                return "David Mirly";
+            default:
+                return "Senior Punch Card Engineer, Retired";
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Font fitting (what findFont used to do) for a card's text, with the per-size metrics already cached as they are
+ * after the first card.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FitBenchmark {
+
+    @Param({"short", "medium", "long"})
+    public String length;
+
+    private int mTitleLen;
+    private int mBottomLen;
+    private final Dimension mCardDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+    private final FontRenderContext mFrc = new FontRenderContext(null, false, false);
+
+    @Setup
+    public void setup() {
+
+        mTitleLen = Cards.title(length).length();
+        mBottomLen = Cards.bottom(length).length();
+
+    }
+
+    @Benchmark
+    public FontFitter.Metrics fit() {
+
+        return FontFitter.fit(mTitleLen, mBottomLen, mCardDim, mFrc);
+
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting FreeMono at a size, the same size every time as when redrawing the same card and a rotating handful of
+ * sizes as when typing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FontBenchmark {
+
+    private static final float[] SIZES = {9f, 9.25f, 10.5f, 11f, 12.75f, 14f, 15.5f, 16f};
+
+    private int mNext;
+
+    @Benchmark
+    public Font getFont() {
+
+        return TTF.getFont(12f);
+
+    }
+
+    @Benchmark
+    public Font getFontRotatingSizes() {
+
+        mNext = (mNext + 1) & (SIZES.length - 1);
+        return TTF.getFont(SIZES[mNext]);
+
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of one point size, what fitting a card measures a handful of times when the size isn't cached yet: read
+ * from the font tables, and from an AWT font the way fitting used to.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MetricsBenchmark {
+
+    private final FontRenderContext mFrc = new FontRenderContext(null, false, false);
+    private final TrueTypeMetrics mMetrics = TTF.getMetrics();
+    private float mPtSize = 10;
+
+    @Benchmark
+    public double tables() {
+
+        mPtSize = mPtSize < 100 ? mPtSize + FontFitter.STEP : 10; // a new size every time
+        float[] lm = mMetrics.lineMetrics(mPtSize);
+        return lm[0] + lm[1] + lm[2] + mMetrics.maxCharWidth(mPtSize, mFrc.getTransform());
+
+    }
+
+    @Benchmark
+    public double awt() {
+
+        mPtSize = mPtSize < 100 ? mPtSize + FontFitter.STEP : 10;
+        Font f = TTF.getFont(mPtSize); // derived fonts are cached, but the metrics aren't
+        LineMetrics lm = f.getLineMetrics("", mFrc);
+        return lm.getHeight() + f.getMaxCharBounds(mFrc).getWidth();
+
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing a whole card into a 72 DPI gray image, the way the batch renderer and the print button do, and drawing a
+ * single title column on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PaintBenchmark {
+
+    @Param({"short", "medium", "long"})
+    public String length;
+
+    private String mTitle;
+    private String mBottom;
+    private final Dimension mCardDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+    private CardLayout mLayout;
+
+    @Setup
+    public void setup() {
+
+        mTitle = Cards.title(length);
+        mBottom = Cards.bottom(length);
+        mImage = new BufferedImage(mCardDim.width, mCardDim.height, BufferedImage.TYPE_BYTE_GRAY);
+        mGraphics = mImage.createGraphics();
+        mLayout = CardLayout.get(mTitle.length(), mBottom.length(), mCardDim, mGraphics.getFontRenderContext());
+
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        mGraphics.dispose();
+
+    }
+
+    @Benchmark
+    public BufferedImage paintBusinessCard() {
+
+        BusinessCardCanvas.paintBusinessCard(mGraphics, mCardDim, mTitle, mBottom);
+        return mImage;
+
+    }
+
+    @Benchmark
+    public BufferedImage paintBusinessCardAtlas() {
+
+        BusinessCardCanvas.paintBusinessCard(mGraphics, mCardDim, mTitle, mBottom, true);
+        return mImage;
+
+    }
+
+    @Benchmark
+    public BufferedImage punchLetter() {
+
+        // 'w' has 6 of its 7 bits set, so nearly every punch gets drawn
+        BusinessCardCanvas.punchLetter('w', mLayout.columnX[0], mLayout.punchX[0], mLayout, mGraphics);
+        return mImage;
+
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.mirly.businesscard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Paper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Printing one US letter page of cards (8 to a page with half inch margins) into an image standing in for the printer,
+ * no printer or print dialog needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PrintBenchmark {
+
+    private BusinessCardPrint mPrint;
+    private PageFormat mPageFormat;
+    private BufferedImage mPage;
+
+    @Setup
+    public void setup() {
+
+        List<CardRecord> cards = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            cards.add(new CardRecord("employee" + i + "@example.com", "Employee " + i));
+        }
+
+        mPrint = new BusinessCardPrint(cards);
+
+        Paper paper = new Paper(); // US letter
+        paper.setImageableArea(36, 36, paper.getWidth() - 72, paper.getHeight() - 72);
+        mPageFormat = new PageFormat();
+        mPageFormat.setPaper(paper);
+
+        mPage = new BufferedImage((int)paper.getWidth(), (int)paper.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+
+    }
+
+    @Benchmark
+    public int print() throws Exception {
+
+        // print translates the graphics it is given, so it gets a fresh one each page like it would from a printer
+        Graphics2D g = mPage.createGraphics();
+
+        try {
+            return mPrint.print(g, mPageFormat, 0);
+        } finally {
+            g.dispose();
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing a whole card with each RenderProfile, straight into a gray image at screen resolution and at the resolutions
+ * a printer rasterizes at, with the layout worked out for the profile's hints.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProfileBenchmark {
+
+    @Param({"batch", "print"})
+    public String profile;
+
+    @Param({"72", "300", "600"})
+    public int dpi;
+
+    private String mTitle;
+    private String mBottom;
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+    private CardLayout mLayout;
+
+    @Setup
+    public void setup() {
+
+        mTitle = Cards.title("medium");
+        mBottom = Cards.bottom("medium");
+
+        int width = BusinessCardCanvas.BC_WIDTH * dpi / Supersampler.SCREEN_DPI;
+        int height = BusinessCardCanvas.BC_HEIGHT * dpi / Supersampler.SCREEN_DPI;
+
+        mImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        mGraphics = mImage.createGraphics();
+        RenderProfile.forName(profile).applyTo(mGraphics);
+        mGraphics.scale((double)width / BusinessCardCanvas.BC_WIDTH, (double)height / BusinessCardCanvas.BC_HEIGHT);
+
+        Dimension cardDim = new Dimension(BusinessCardCanvas.BC_WIDTH, BusinessCardCanvas.BC_HEIGHT);
+        mLayout = CardLayout.get(mTitle.length(), mBottom.length(), cardDim, mGraphics.getFontRenderContext());
+
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        mGraphics.dispose();
+
+    }
+
+    @Benchmark
+    public BufferedImage paintBusinessCard() {
+
+        BusinessCardCanvas.paintBusinessCard(mGraphics, mLayout, mTitle, mBottom, false);
+        return mImage;
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 David Mirly
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mirly.businesscard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start to finish time of rendering one card with CardRender in a process of its own: on a plain JVM, on a JVM with an
+ * AppCDS archive of the classes it loads (made in the setup, from a training run), and as a native image.  The native
+ * image isn't built here, ask for it with -p mode=native after mvn -Pnative package, it is looked for as
+ * target/card-render or wherever -Dcardrender.native says.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class StartupBenchmark {
+
+    @Param({"jvm", "appcds"})
+    public String mode;
+
+    @Param({"png", "svg"})
+    public String format;
+
+    private List<String> mCommand;
+    private File mDir;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException, URISyntaxException {
+
+        mDir = Files.createTempDirectory("startup").toFile();
+
+        // the benchmarks jar has the cards in it too
+        String classPath = new File(CardRender.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        File card = new File(mDir, "card." + format);
+
+        switch (mode) {
+
+            case "jvm":
+                mCommand = command(java, "-cp", classPath);
+                break;
+
+            case "appcds":
+                File archive = new File(mDir, "businesscard.jsa");
+                run(command(java, "-XX:ArchiveClassesAtExit=" + archive, "-cp", classPath), card);
+                mCommand = command(java, "-XX:SharedArchiveFile=" + archive, "-cp", classPath);
+                break;
+
+            case "native":
+                mCommand = new ArrayList<>(List.of(System.getProperty("cardrender.native", "target/card-render")));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+
+        }
+
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        for (File f : mDir.listFiles()) {
+            f.delete();
+        }
+
+        mDir.delete();
+
+    }
+
+    @Benchmark
+    public int render() throws IOException, InterruptedException {
+
+        return run(mCommand, new File(mDir, "card." + format));
+
+    }
+
+    private static List<String> command(String... args) {
+
+        List<String> command = new ArrayList<>(Arrays.asList(args));
+        command.add(CardRender.class.getName());
+        return command;
+
+    }
+
+    private static int run(List<String> command, File card) throws IOException, InterruptedException {
+
+        List<String> args = new ArrayList<>(command);
+        args.addAll(List.of(card.getPath(), Cards.title("medium"), Cards.bottom("medium")));
+
+        Process process = new ProcessBuilder(args).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        int exit = process.waitFor();
+
+        if (exit != 0) {
+            throw new IllegalStateException(String.join(" ", args) + " exited with " + exit);
+        }
+
+        return exit;
+
+    }
+
+}